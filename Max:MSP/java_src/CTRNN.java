@@ -10,11 +10,62 @@
 public class CTRNN implements java.io.Serializable
 {
 	public enum TransferFunction { LOGSIG, TANH, TANH_SINE_MIX };
-	private static TransferFunction transfunc = TransferFunction.LOGSIG;
+	public enum Connectivity { AUTO, DENSE, SPARSE };
+	public enum Integrator { EULER, RUNGEKUTTA4, DORMANDPRINCE, EXPONENTIAL_EULER, MULTIRATE_EULER };
+	public enum TransferAccuracy { EXACT, POLYNOMIAL, TABLE };	// see CTRNNFastMath for error bounds
+	
+	// Under AUTO, circuits with fewer than this fraction of non-zero weights are stepped sparsely
+	public static final double SPARSE_DENSITY_THRESHOLD = 0.15;
 	
 	private double mTimeStep = 0.01;	// default timestep
+	private double mTime = 0.0;			// simulated time
+	private Integrator mIntegrator = Integrator.RUNGEKUTTA4;	// used by step() & advance()
 	private CTRNNSettings mParams;		// circuit parameters
 	private boolean mCenterWeighted = false;	// is center weighted ?
+	private transient CTRNNKernel mKernel = CTRNNKernel.getDefault();	// synaptic summation backend
+	
+	private Connectivity mConnectivity = Connectivity.AUTO;
+	private transient CTRNNSparseWeights mSparse;	// compressed weights, null when stepping densely
+	private transient int mSparseVersion = -1;		// settings weights version mSparse was built for
+	
+	// Adaptive (Dormand-Prince) integration
+	private double mAbsTolerance = 1e-6;
+	private double mRelTolerance = 1e-6;
+	private double mAdaptiveStep = 0.01;			// step size the error control will try next
+	private double mMinAdaptiveStep = 1e-9;
+	private transient double[][] mDPStages;			// k1..k7
+	private transient double[] mDPTemp;
+	
+	// Exponential Euler decay factors exp(-dt/tau), and the dt & 1/tau they were computed for
+	private transient double[] mDecay, mDecayInvTaus;
+	private transient double mDecayTimeStep;
+	
+	// Multi-rate integration: a neuron's step stays within this fraction of its tau
+	private double mMultiRateStepFraction = 0.1;
+	private int mMultiRateMaxBand = 8;
+	private transient CTRNNMultiRate mMultiRate;
+	
+	// Per-source transmission delays, null when no connection is delayed
+	private transient CTRNNDelays mDelays;
+	private transient double[] mDelayedSources;	// delayed sources of the phase in progress
+	
+	// Fixed point detection
+	private boolean mDetectConvergence = false;
+	private double mConvergenceTolerance;		// on max |d state / dt|
+	private int mConvergenceHold;				// consecutive steps below tolerance
+	private int mStepsBelowTolerance;
+	private boolean mConverged = false;
+	private transient double[] mConvergenceStates;	// states before the current step, the fixed point once converged
+	private transient double[] mConvergenceParams;	// inputs & parameters the fixed point was found for
+	private transient int mConvergenceWeightsVersion, mConvergenceStateVersion;
+	
+	// Incremental synaptic sums, null to recompute them in full every time
+	private transient CTRNNDeltaPropagator mDelta;
+	
+	// Intra-circuit parallelism, null to always step serially
+	private transient CTRNNParallelStepper mParallel;
+	private transient double[] mPhaseY, mPhaseDydt;	// arguments of the derivative phases
+	private transient double mPhaseTime;				// simulated time of the derivative phases
 	
 	public CTRNN(CTRNNSettings ctrnnSettings) 
 	{
@@ -38,11 +89,29 @@ public class CTRNN implements java.io.Serializable
 		return Math.log(y/(1.0 - y));
 	}
 	
-	public static double genericTransferFunction(double y)
+	public static double genericTransferFunction(TransferFunction tf, TransferAccuracy accuracy, double y)
 	{
-		// System.out.println("transfer func: " + transfunc);
+		if (accuracy == TransferAccuracy.POLYNOMIAL) 
+		{
+			switch (tf) 
+			{
+				case TANH:			return CTRNNFastMath.tanh(y);
+				case TANH_SINE_MIX:	return mA * CTRNNFastMath.tanh(y) + (1.0 - mA) * CTRNNFastMath.sin(y);
+				default:			return CTRNNFastMath.sigmoid(y);
+			}
+		}
 		
-        switch (transfunc) 
+		if (accuracy == TransferAccuracy.TABLE) 
+		{
+			switch (tf) 
+			{
+				case TANH:			return CTRNNFastMath.tanhTable(y);
+				case TANH_SINE_MIX:	return mA * CTRNNFastMath.tanhTable(y) + (1.0 - mA) * CTRNNFastMath.sin(y);
+				default:			return CTRNNFastMath.sigmoidTable(y);
+			}
+		}
+		
+        switch (tf) 
 		{
             case LOGSIG:		return sigmoid(y);
             case TANH:			return Math.tanh(y);
@@ -51,6 +120,168 @@ public class CTRNN implements java.io.Serializable
         }	
 	}
 	
+	// f'(y) of the exact transfer function, e.g. for the CTRNN's Jacobian
+	public static double transferDerivative(TransferFunction tf, double y)
+	{
+		switch (tf) 
+		{
+			case TANH:
+			{
+				double t = Math.tanh(y);
+				return 1.0 - t * t;
+			}
+			case TANH_SINE_MIX:
+			{
+				double t = Math.tanh(y);
+				return mA * (1.0 - t * t) + (1.0 - mA) * Math.cos(y);
+			}
+			default:
+			{
+				double s = sigmoid(y);
+				return s * (1.0 - s);
+			}
+		}
+	}
+	
+	// out[i] = f(gains[i] * (states[i] + biases[i])) for lo <= i < hi. The
+	// choice of f is made once, outside the loop, so each loop below calls a
+	// single static method the JIT can inline.
+	public static void transferOutputs(TransferFunction tf, TransferAccuracy accuracy, 
+		double[] gains, double[] states, double[] biases, double[] out, int lo, int hi)
+	{
+		switch (accuracy) 
+		{
+			case POLYNOMIAL:
+				switch (tf) 
+				{
+					case TANH:
+						for (int i = lo; i < hi; i++)
+							out[i] = CTRNNFastMath.tanh(gains[i] * (states[i] + biases[i]));
+						return;
+					case TANH_SINE_MIX:
+						for (int i = lo; i < hi; i++) 
+						{
+							double y = gains[i] * (states[i] + biases[i]);
+							out[i] = mA * CTRNNFastMath.tanh(y) + (1.0 - mA) * CTRNNFastMath.sin(y);
+						}
+						return;
+					default:
+						for (int i = lo; i < hi; i++)
+							out[i] = CTRNNFastMath.sigmoid(gains[i] * (states[i] + biases[i]));
+						return;
+				}
+				
+			case TABLE:
+				switch (tf) 
+				{
+					case TANH:
+						for (int i = lo; i < hi; i++)
+							out[i] = CTRNNFastMath.tanhTable(gains[i] * (states[i] + biases[i]));
+						return;
+					case TANH_SINE_MIX:
+						for (int i = lo; i < hi; i++) 
+						{
+							double y = gains[i] * (states[i] + biases[i]);
+							out[i] = mA * CTRNNFastMath.tanhTable(y) + (1.0 - mA) * CTRNNFastMath.sin(y);
+						}
+						return;
+					default:
+						for (int i = lo; i < hi; i++)
+							out[i] = CTRNNFastMath.sigmoidTable(gains[i] * (states[i] + biases[i]));
+						return;
+				}
+				
+			default:
+				switch (tf) 
+				{
+					case TANH:
+						for (int i = lo; i < hi; i++)
+							out[i] = Math.tanh(gains[i] * (states[i] + biases[i]));
+						return;
+					case TANH_SINE_MIX:
+						for (int i = lo; i < hi; i++) 
+						{
+							double y = gains[i] * (states[i] + biases[i]);
+							out[i] = mA * Math.tanh(y) + (1.0 - mA) * Math.sin(y);
+						}
+						return;
+					default:
+						for (int i = lo; i < hi; i++)
+							out[i] = sigmoid(gains[i] * (states[i] + biases[i]));
+						return;
+				}
+		}
+	}
+	
+	// Single precision transferOutputs for CTRNNFloat: the same per-pass choice
+	// of f, evaluated in double and rounded once per output.
+	public static void transferOutputs(TransferFunction tf, TransferAccuracy accuracy, 
+		float[] gains, float[] states, float[] biases, float[] out, int lo, int hi)
+	{
+		switch (accuracy) 
+		{
+			case POLYNOMIAL:
+				switch (tf) 
+				{
+					case TANH:
+						for (int i = lo; i < hi; i++)
+							out[i] = (float) CTRNNFastMath.tanh(gains[i] * (states[i] + biases[i]));
+						return;
+					case TANH_SINE_MIX:
+						for (int i = lo; i < hi; i++) 
+						{
+							double y = gains[i] * (states[i] + biases[i]);
+							out[i] = (float) (mA * CTRNNFastMath.tanh(y) + (1.0 - mA) * CTRNNFastMath.sin(y));
+						}
+						return;
+					default:
+						for (int i = lo; i < hi; i++)
+							out[i] = (float) CTRNNFastMath.sigmoid(gains[i] * (states[i] + biases[i]));
+						return;
+				}
+				
+			case TABLE:
+				switch (tf) 
+				{
+					case TANH:
+						for (int i = lo; i < hi; i++)
+							out[i] = (float) CTRNNFastMath.tanhTable(gains[i] * (states[i] + biases[i]));
+						return;
+					case TANH_SINE_MIX:
+						for (int i = lo; i < hi; i++) 
+						{
+							double y = gains[i] * (states[i] + biases[i]);
+							out[i] = (float) (mA * CTRNNFastMath.tanhTable(y) + (1.0 - mA) * CTRNNFastMath.sin(y));
+						}
+						return;
+					default:
+						for (int i = lo; i < hi; i++)
+							out[i] = (float) CTRNNFastMath.sigmoidTable(gains[i] * (states[i] + biases[i]));
+						return;
+				}
+				
+			default:
+				switch (tf) 
+				{
+					case TANH:
+						for (int i = lo; i < hi; i++)
+							out[i] = (float) Math.tanh(gains[i] * (states[i] + biases[i]));
+						return;
+					case TANH_SINE_MIX:
+						for (int i = lo; i < hi; i++) 
+						{
+							double y = gains[i] * (states[i] + biases[i]);
+							out[i] = (float) (mA * Math.tanh(y) + (1.0 - mA) * Math.sin(y));
+						}
+						return;
+					default:
+						for (int i = lo; i < hi; i++)
+							out[i] = (float) sigmoid(gains[i] * (states[i] + biases[i]));
+						return;
+				}
+		}
+	}
+	
 	
 	
 	// Adjust biases to their center crossing values 
@@ -59,14 +290,13 @@ public class CTRNN implements java.io.Serializable
 	{
 		double inWeights;
 		double thetaS;
+		int n = mParams.circuitSize;
 		
-		for (int i = 0; i < mParams.circuitSize; i++) 
+		for (int i = 0; i < n; i++) 
 		{
-			// Sum the input weights to this neuron
-			inWeights = 0;
-			
-			for (int j = 0; j < mParams.circuitSize; j++)
-				inWeights += mParams.getConnectionWeight(j, i);
+			// Sum the input weights to this neuron (kept up to date in
+			// center-crossing mode, otherwise a contiguous row sum)
+			inWeights = mParams.getInWeightSum(i);
 			
 			// Compute the corresponding ThetaStar
 			thetaS = -inWeights / 2.0;
@@ -85,21 +315,58 @@ public class CTRNN implements java.io.Serializable
 	public void EulerStep()
 	{
 		// System.out.println(" EulerStep ");
-
+		
+		prepareWeights();
+		
 		// Update state of all neurons.
-		for (int i = 0; i < mParams.circuitSize; i++) 
+		phase(PHASE_EULER);
+		
+		// Update outputs of all neurons.
+		phase(PHASE_OUTPUTS);
+		
+		mTime += mTimeStep;
+		recordDelays();
+	}
+	
+	// Integrate one step using exponential Euler: with the synaptic input I held
+	// over the step, the leak is integrated exactly,
+	//   state(t + dt) = I + (state(t) - I) * exp(-dt / tau),
+	// so fast neurons relax towards I instead of overshooting, and the step
+	// stays stable at timesteps far beyond the smallest tau.
+	public void ExponentialEulerStep()
+	{
+		prepareWeights();
+		
+		if (mDecay == null || mDecay.length != mParams.circuitSize) 
 		{
-			double input = mParams.externalInputs[i];
-			
-			for (int j = 0; j < mParams.circuitSize; j++) 
-				input += mParams.weights[j][i] * mParams.outputs[j];
-			
-			mParams.states[i] += mTimeStep * mParams.invTaus[i] * (input - mParams.states[i]);
+			mDecay = new double[mParams.circuitSize];
+			mDecayInvTaus = new double[mParams.circuitSize];
+			mDecayTimeStep = Double.NaN;
 		}
 		
+		// Update state of all neurons.
+		phase(PHASE_EXP_EULER);
+		
 		// Update outputs of all neurons.
-		for (int i = 0; i < mParams.circuitSize; i++)
-			mParams.outputs[i] = genericTransferFunction(mParams.gains[i] * (mParams.states[i] + mParams.biases[i]));
+		phase(PHASE_OUTPUTS);
+		
+		mDecayTimeStep = mTimeStep;
+		mTime += mTimeStep;
+		recordDelays();
+	}
+	
+	// Integrate one base timestep with multi-rate Euler: neurons with large
+	// taus are stepped less often, with larger steps (see CTRNNMultiRate).
+	// Synaptic delays are ignored.
+	public void MultiRateEulerStep()
+	{
+		prepareWeights();
+		
+		if (mMultiRate == null)
+			mMultiRate = new CTRNNMultiRate(mParams.circuitSize, mMultiRateStepFraction, mMultiRateMaxBand);
+		
+		mMultiRate.step(this, mParams, mTimeStep);
+		mTime += mTimeStep;
 	}
 	
 	// Integrate one step using 4th-order Runge-Kutta
@@ -107,57 +374,631 @@ public class CTRNN implements java.io.Serializable
 	{
 		// System.out.println(" RungaKutta4Step ");
 		
-		double input;
+		prepareWeights();
 		
 		// The first step.
-		for (int i = 0; i < mParams.circuitSize; i++) 
+		phase(PHASE_RK1);
+		phase(PHASE_TEMP_OUTPUTS);
+		
+		// The second step.
+		phase(PHASE_RK2);
+		phase(PHASE_TEMP_OUTPUTS);
+		
+		// The third step.
+		phase(PHASE_RK3);
+		phase(PHASE_TEMP_OUTPUTS);
+		
+		// The fourth step.
+		phase(PHASE_RK4);
+		phase(PHASE_OUTPUTS);
+		
+		mTime += mTimeStep;
+		recordDelays();
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Integration Phases
+	/////////////////////////////////////////////////////////
+	
+	// Each phase only writes per-neuron values of the neurons in its range, and
+	// reads other neurons' values that no phase running alongside it writes, so
+	// a phase can be split across threads with a barrier between phases.
+	static final int PHASE_EULER = 0;			// states += k1, k1 from outputs
+	static final int PHASE_OUTPUTS = 1;			// outputs from states
+	static final int PHASE_TEMP_OUTPUTS = 2;	// TempOutputs from TempStates
+	static final int PHASE_RK1 = 3;				// k1 from outputs, TempStates = states + k1/2
+	static final int PHASE_RK2 = 4;				// k2 from TempOutputs, TempStates = states + k2/2
+	static final int PHASE_RK3 = 5;				// k3 from TempOutputs, TempStates = states + k3
+	static final int PHASE_RK4 = 6;				// k4 from TempOutputs, states += weighted k1..k4
+	static final int PHASE_DERIV_OUTPUTS = 7;	// TempOutputs from mPhaseY
+	static final int PHASE_DERIV = 8;			// mPhaseDydt = f(mPhaseY) using TempOutputs
+	static final int PHASE_EXP_EULER = 9;		// states relax exactly towards their input
+	
+	// Run a phase over all neurons, in parallel when the circuit is large enough
+	private void phase(int phase)
+	{
+		int n = mParams.circuitSize;
+		
+		if (mDelays != null || mDelta != null) 
+		{
+			double[] x = phaseSources(phase);
+			if (x != null && mDelays != null) 
+				x = mDelayedSources = mDelays.delayedSources(x, phaseTime(phase));
+			if (x != null && mDelta != null) 
+				mDelta.prepare(mParams, x);
+		}
+		
+		if (mParallel != null && mParallel.isParallel(n))
+			mParallel.run(this, phase, n);
+		else
+			runPhase(phase, 0, n);
+	}
+	
+	// Run a phase for neurons lo <= i < hi
+	void runPhase(int phase, int lo, int hi)
+	{
+		final CTRNNSettings p = mParams;
+		
+		switch (phase) 
+		{
+			case PHASE_EULER:
+				weightedInputs(p.outputs, lo, hi);
+				mKernel.derivative(mTimeStep, p.invTaus, p.synapticInputs, p.states, p.k1, lo, hi);
+				mKernel.axpy(p.states, 1.0, p.k1, p.states, lo, hi);
+				break;
+				
+			case PHASE_OUTPUTS:
+				transferOutputs(p.getTransferFunction(), p.getTransferAccuracy(), p.gains, p.states, p.biases, p.outputs, lo, hi);
+				break;
+				
+			case PHASE_TEMP_OUTPUTS:
+				transferOutputs(p.getTransferFunction(), p.getTransferAccuracy(), p.gains, p.TempStates, p.biases, p.TempOutputs, lo, hi);
+				break;
+				
+			case PHASE_RK1:
+				rungaKuttaStage(p.outputs, p.states, p.k1, 0.5, lo, hi);
+				break;
+				
+			case PHASE_RK2:
+				rungaKuttaStage(p.TempOutputs, p.TempStates, p.k2, 0.5, lo, hi);
+				break;
+				
+			case PHASE_RK3:
+				rungaKuttaStage(p.TempOutputs, p.TempStates, p.k3, 1.0, lo, hi);
+				break;
+				
+			case PHASE_RK4:
+				weightedInputs(p.TempOutputs, lo, hi);
+				mKernel.derivative(mTimeStep, p.invTaus, p.synapticInputs, p.TempStates, p.k4, lo, hi);
+				for (int i = lo; i < hi; i++)
+					p.states[i] += (1.0/6.0)*p.k1[i] + (1.0/3.0)*p.k2[i] + (1.0/3.0)*p.k3[i] + (1.0/6.0)*p.k4[i];
+				break;
+				
+			case PHASE_DERIV_OUTPUTS:
+				transferOutputs(p.getTransferFunction(), p.getTransferAccuracy(), p.gains, mPhaseY, p.biases, p.TempOutputs, lo, hi);
+				break;
+				
+			case PHASE_DERIV:
+				weightedInputs(p.TempOutputs, lo, hi);
+				mKernel.derivative(1.0, p.invTaus, p.synapticInputs, mPhaseY, mPhaseDydt, lo, hi);
+				break;
+				
+			case PHASE_EXP_EULER:
+				weightedInputs(p.outputs, lo, hi);
+				for (int i = lo; i < hi; i++) 
+				{
+					// exp(-dt/tau) is cached until the timestep or this neuron's tau changes
+					if (mDecayTimeStep != mTimeStep || mDecayInvTaus[i] != p.invTaus[i]) 
+					{
+						mDecayInvTaus[i] = p.invTaus[i];
+						mDecay[i] = Math.exp(-mTimeStep * p.invTaus[i]);
+					}
+					double input = p.synapticInputs[i];
+					p.states[i] = input + (p.states[i] - input) * mDecay[i];
+				}
+				break;
+		}
+	}
+	
+	// The vector a phase feeds through the weights, null if it has no synaptic summation
+	private double[] phaseSources(int phase)
+	{
+		switch (phase) 
+		{
+			case PHASE_EULER:
+			case PHASE_EXP_EULER:
+			case PHASE_RK1:		return mParams.outputs;
+			case PHASE_RK2:
+			case PHASE_RK3:
+			case PHASE_RK4:
+			case PHASE_DERIV:	return mParams.TempOutputs;
+			default:			return null;
+		}
+	}
+	
+	// The simulated time a phase evaluates the derivative at
+	private double phaseTime(int phase)
+	{
+		switch (phase) 
+		{
+			case PHASE_RK2:
+			case PHASE_RK3:		return mTime + 0.5 * mTimeStep;
+			case PHASE_RK4:		return mTime + mTimeStep;
+			case PHASE_DERIV:	return mPhaseTime;
+			default:			return mTime;
+		}
+	}
+	
+	// One of the first three Runga Kutta stages: k = f(stageStates, stageOutputs),
+	// then TempStates = states + advance * k
+	private void rungaKuttaStage(double[] stageOutputs, double[] stageStates, double[] k, double advance, int lo, int hi)
+	{
+		weightedInputs(stageOutputs, lo, hi);
+		mKernel.derivative(mTimeStep, mParams.invTaus, mParams.synapticInputs, stageStates, k, lo, hi);
+		mKernel.axpy(mParams.states, advance, k, mParams.TempStates, lo, hi);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Multi-step Integration
+	/////////////////////////////////////////////////////////
+	
+	// Integrate one step with the current integrator. For DORMANDPRINCE a
+	// step covers one timestep of simulated time, in as many internal steps
+	// as the tolerances need.
+	public void step()
+	{
+		if (mConverged && !convergenceInvalidated()) 
 		{
-			input = mParams.externalInputs[i];
-			for (int j = 0; j < mParams.circuitSize; j++)
-				input += mParams.weights[j][i] * mParams.outputs[j];
+			// Sitting on a fixed point: nothing left to integrate
+			mTime += mTimeStep;
+			return;
+		}
+		
+		// Multi-rate slow bands only move once per interval, so their change is
+		// measured across a whole cycle of the bands instead of per step
+		boolean multiRate = (mIntegrator == Integrator.MULTIRATE_EULER);
+		if (mDetectConvergence && (!multiRate || mMultiRate == null || mMultiRate.isCycleStart()))
+			System.arraycopy(mParams.states, 0, mConvergenceStates, 0, mParams.circuitSize);
+		
+		double t = mTime;
+		
+		switch (mIntegrator) 
+		{
+			case EULER:			EulerStep(); break;
+			case EXPONENTIAL_EULER:	ExponentialEulerStep(); break;
+			case MULTIRATE_EULER:	MultiRateEulerStep(); break;
+			case DORMANDPRINCE:	integrateAdaptive(mTimeStep); recordDelays(); break;
+			default:			RungaKutta4Step(); break;
+		}
+		
+		if (mDetectConvergence && !multiRate)
+			checkConvergence(mTime - t, 1);
+		else if (mDetectConvergence && mMultiRate.isCycleStart())
+			checkConvergence(mMultiRate.getCycleLength() * mTimeStep, mMultiRate.getCycleLength());
+	}
+	
+	public void advance(int steps)
+	{
+		advance(steps, null, 0, 1);
+	}
+	
+	// Integrate steps steps with the current integrator. If record is not null
+	// the outputs are copied into it after every recordEvery-th step, circuitSize
+	// values per sample starting at offset. Returns the number of samples recorded.
+	// Once the circuit is converged (see enableConvergenceDetection) the rest of
+	// the trajectory is filled in from the fixed point without integrating.
+	// Plain Euler runs through eulerSteps; the other integrators, RK4 included,
+	// loop over step() (a fused RK4 loop measured no faster: the transfer
+	// function and synaptic sums dominate, not the per-step calls).
+	public int advance(int steps, double[] record, int offset, int recordEvery)
+	{
+		final int n = mParams.circuitSize;
+		int samples = 0;
+		int done = 0;
+		
+		if (record == null) 
+			recordEvery = Math.max(steps, 1);
+		else if (recordEvery < 1)
+			throw new IllegalArgumentException("recordEvery must be at least 1: " + recordEvery);
+		
+		while (done < steps) 
+		{
+			if (mConverged && !convergenceInvalidated()) 
+			{
+				mTime += (steps - done) * mTimeStep;
+				
+				if (record != null) 
+				{
+					for (int next = (done / recordEvery + 1) * recordEvery; next <= steps; next += recordEvery) 
+					{
+						System.arraycopy(mParams.outputs, 0, record, offset, n);
+						offset += n;
+						samples++;
+					}
+				}
+				break;
+			}
+			
+			// steps to the next sample
+			int chunk = Math.min(recordEvery - done % recordEvery, steps - done);
+			int taken = chunk;
+			
+			if (mIntegrator == Integrator.EULER && mParallel == null && mDelta == null && mDelays == null && !mDetectConvergence)
+				eulerSteps(chunk);
+			else
+				for (taken = 0; taken < chunk && !mConverged; taken++) step();
+			
+			done += taken;
 			
-			mParams.k1[i] = mTimeStep * mParams.invTaus[i] * (input - mParams.states[i]); 
-			mParams.TempStates[i] = mParams.states[i] + 0.5*mParams.k1[i];
-			mParams.TempOutputs[i] = genericTransferFunction(mParams.gains[i]*(mParams.TempStates[i]+mParams.biases[i]));
+			if (record != null && done % recordEvery == 0) 
+			{
+				System.arraycopy(mParams.outputs, 0, record, offset, n);
+				offset += n;
+				samples++;
+			}
 		}
+		return samples;
+	}
+	
+	// Integrate up to simulated time t (to the nearest whole timestep for the
+	// fixed-step integrators). Returns the number of steps taken.
+	public int advanceTo(double t)
+	{
+		// with delays the history needs a sample every timestep
+		if (mIntegrator == Integrator.DORMANDPRINCE && mDelays == null)
+			return (t > mTime) ? integrateAdaptive(t - mTime) : 0;
 		
-		// The second step.
-		for (int i = 0; i < mParams.circuitSize; i++) 
+		int steps = (int) Math.round((t - mTime) / mTimeStep);
+		if (steps <= 0) 
+			return 0;
+		
+		advance(steps);
+		return steps;
+	}
+	
+	// count Euler steps in one loop, with the circuit arrays held in locals.
+	// The state update and the output pass stay separate loops, so the
+	// transfer function choice is made once per pass (see transferOutputs).
+	private void eulerSteps(int count)
+	{
+		prepareWeights();
+		
+		final int n = mParams.circuitSize;
+		final double dt = mTimeStep;
+		final double[] states = mParams.states, outputs = mParams.outputs, gains = mParams.gains;
+		final double[] biases = mParams.biases, invTaus = mParams.invTaus;
+		final double[] weights = mParams.weights, ext = mParams.externalInputs, inputs = mParams.synapticInputs;
+		final CTRNNKernel kernel = mKernel;
+		final CTRNNSparseWeights sparse = mSparse;
+		final TransferFunction tf = mParams.getTransferFunction();
+		final TransferAccuracy accuracy = mParams.getTransferAccuracy();
+		
+		for (int s = 0; s < count; s++) 
 		{
-			input = mParams.externalInputs[i];
-			for (int j = 0; j < mParams.circuitSize; j++)
-				input += mParams.weights[j][i] * mParams.TempOutputs[j];
-			mParams.k2[i] = mTimeStep * mParams.invTaus[i] * (input - mParams.TempStates[i]);
-			mParams.TempStates[i] = mParams.states[i] + 0.5*mParams.k2[i];
+			if (sparse != null)
+				sparse.weightedInputs(outputs, ext, inputs, 0, n);
+			else
+				kernel.weightedInputs(weights, outputs, ext, inputs, n, 0, n);
+			
+			for (int i = 0; i < n; i++) 
+				states[i] += dt * invTaus[i] * (inputs[i] - states[i]);
+			
+			transferOutputs(tf, accuracy, gains, states, biases, outputs, 0, n);
 		}
-		for (int i = 0; i < mParams.circuitSize; i++)
-			mParams.TempOutputs[i] = genericTransferFunction(mParams.gains[i]*(mParams.TempStates[i]+mParams.biases[i]));
 		
-		// The third step.
-		for (int i = 0; i <  mParams.circuitSize; i++) 
+		mTime += count * dt;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Fixed Point Detection
+	/////////////////////////////////////////////////////////
+	
+	// Watch max_i |d state_i / dt| after every step(); once it has stayed below
+	// tolerance for holdSteps consecutive steps the circuit is converged and
+	// step()/advance() stop integrating. With MULTIRATE_EULER the rate is the
+	// average over each cycle of the bands (2^band base steps for the slowest
+	// band), so at least one whole cycle is held whatever holdSteps is. Changing the weights, external inputs,
+	// biases, gains, taus, states or transfer function wakes the circuit up again.
+	public void enableConvergenceDetection(double tolerance, int holdSteps) 
+	{
+		int n = mParams.circuitSize;
+		
+		mDetectConvergence = true;
+		mConvergenceTolerance = tolerance;
+		mConvergenceHold = Math.max(1, holdSteps);
+		mConvergenceStates = new double[n];
+		mConvergenceParams = new double[4 * n];
+		resetConvergence();
+	}
+	
+	public void disableConvergenceDetection() 
+	{
+		mDetectConvergence = false;
+		resetConvergence();
+	}
+	
+	public void resetConvergence() 
+	{
+		mConverged = false;
+		mStepsBelowTolerance = 0;
+	}
+	
+	public boolean isConverged() 
+	{
+		return mConverged;
+	}
+	
+	// elapsed: simulated time since mConvergenceStates, steps: base steps it covers
+	private void checkConvergence(double elapsed, int steps)
+	{
+		final int n = mParams.circuitSize;
+		final double[] states = mParams.states;
+		double rate = 0.0;
+		
+		for (int i = 0; i < n; i++)
+			rate = Math.max(rate, Math.abs(states[i] - mConvergenceStates[i]));
+		rate /= elapsed;
+		
+		if (rate >= mConvergenceTolerance) 
 		{
-			input = mParams.externalInputs[i];
-			for (int j = 0; j <  mParams.circuitSize; j++)
-				input += mParams.weights[j][i] * mParams.TempOutputs[j];
-			mParams.k3[i] = mTimeStep * mParams.invTaus[i] * (input - mParams.TempStates[i]);
-			mParams.TempStates[i] = mParams.states[i] + mParams.k3[i];
+			mStepsBelowTolerance = 0;
+			return;
 		}
-		for (int i = 0; i < mParams.circuitSize; i++)
-			mParams.TempOutputs[i] = genericTransferFunction(mParams.gains[i]*(mParams.TempStates[i]+mParams.biases[i]));
 		
-		// The fourth step.
-		for (int i = 0; i < mParams.circuitSize; i++)
+		mStepsBelowTolerance += steps;
+		if (mStepsBelowTolerance >= mConvergenceHold) 
 		{
-			input = mParams.externalInputs[i];
-			for (int j = 0; j < mParams.circuitSize; j++)
-				input += mParams.weights[j][i] * mParams.TempOutputs[j];
+			mConverged = true;
 			
-			mParams.k4[i] = mTimeStep * mParams.invTaus[i] * (input - mParams.TempStates[i]);
-			mParams.states[i] += (1.0/6.0)*mParams.k1[i] + (1.0/3.0)*mParams.k2[i] + (1.0/3.0)*mParams.k3[i] + (1.0/6.0)*mParams.k4[i];
-			mParams.outputs[i] = genericTransferFunction(mParams.gains[i]*(mParams.states[i]+mParams.biases[i]));
+			// Remember what the fixed point depends on
+			System.arraycopy(mParams.externalInputs, 0, mConvergenceParams, 0, n);
+			System.arraycopy(mParams.biases, 0, mConvergenceParams, n, n);
+			System.arraycopy(mParams.gains, 0, mConvergenceParams, 2 * n, n);
+			System.arraycopy(mParams.invTaus, 0, mConvergenceParams, 3 * n, n);
+			System.arraycopy(states, 0, mConvergenceStates, 0, n);
+			mConvergenceWeightsVersion = mParams.getWeightsVersion();
+			mConvergenceStateVersion = mParams.getStateVersion();
 		}
 	}
 	
+	// True (and no longer converged) if anything the fixed point depends on changed
+	private boolean convergenceInvalidated()
+	{
+		final int n = mParams.circuitSize;
+		boolean changed = mParams.getWeightsVersion() != mConvergenceWeightsVersion
+			|| mParams.getStateVersion() != mConvergenceStateVersion;
+		
+		for (int i = 0; i < n && !changed; i++) 
+		{
+			changed = mParams.states[i] != mConvergenceStates[i]
+				|| mParams.externalInputs[i] != mConvergenceParams[i]
+				|| mParams.biases[i] != mConvergenceParams[n + i]
+				|| mParams.gains[i] != mConvergenceParams[2 * n + i]
+				|| mParams.invTaus[i] != mConvergenceParams[3 * n + i];
+		}
+		
+		if (changed)
+			resetConvergence();
+		return changed;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Adaptive Integration (Dormand-Prince 5(4))
+	/////////////////////////////////////////////////////////
+	
+	// Dormand-Prince tableau
+	private static final double
+		A21 = 1.0/5.0,
+		A31 = 3.0/40.0, A32 = 9.0/40.0,
+		A41 = 44.0/45.0, A42 = -56.0/15.0, A43 = 32.0/9.0,
+		A51 = 19372.0/6561.0, A52 = -25360.0/2187.0, A53 = 64448.0/6561.0, A54 = -212.0/729.0,
+		A61 = 9017.0/3168.0, A62 = -355.0/33.0, A63 = 46732.0/5247.0, A64 = 49.0/176.0, A65 = -5103.0/18656.0,
+		A71 = 35.0/384.0, A73 = 500.0/1113.0, A74 = 125.0/192.0, A75 = -2187.0/6784.0, A76 = 11.0/84.0,
+		// difference between the 5th and embedded 4th order weights
+		E1 = 71.0/57600.0, E3 = -71.0/16695.0, E4 = 71.0/1920.0, E5 = -17253.0/339200.0, E6 = 22.0/525.0, E7 = -1.0/40.0,
+		// stage times
+		C2 = 1.0/5.0, C3 = 3.0/10.0, C4 = 4.0/5.0, C5 = 8.0/9.0;
+	
+	// Take one error-controlled step, retrying with smaller steps until the
+	// local error is within tolerance. Returns the step size actually taken.
+	public double DormandPrinceStep()
+	{
+		prepareAdaptive();
+		derivative(mParams.states, mDPStages[0], mTime);
+		return dormandPrince(Double.POSITIVE_INFINITY);
+	}
+	
+	// Advance the circuit by exactly duration time units with as few
+	// error-controlled steps as the tolerances allow. Returns the number of steps taken.
+	public int integrateAdaptive(double duration)
+	{
+		prepareAdaptive();
+		derivative(mParams.states, mDPStages[0], mTime);
+		
+		double t = 0.0;
+		int steps = 0;
+		
+		while (t < duration) 
+		{
+			double remaining = duration - t;
+			double h = dormandPrince(remaining);
+			t = (h == remaining) ? duration : t + h;
+			steps++;
+		}
+		return steps;
+	}
+	
+	// One accepted step of at most maxStep, starting from k1 = f(states) in
+	// mDPStages[0]. On return states/outputs are advanced and mDPStages[0]
+	// holds f(new states), so consecutive calls share that evaluation.
+	private double dormandPrince(double maxStep)
+	{
+		final int n = mParams.circuitSize;
+		final double[] y = mParams.states;
+		final double[] tmp = mDPTemp;
+		final double[] k1 = mDPStages[0], k2 = mDPStages[1], k3 = mDPStages[2], k4 = mDPStages[3], 
+			k5 = mDPStages[4], k6 = mDPStages[5], k7 = mDPStages[6];
+		
+		while (true) 
+		{
+			double h = Math.min(mAdaptiveStep, maxStep);
+			
+			for (int i = 0; i < n; i++)
+				tmp[i] = y[i] + h * A21 * k1[i];
+			derivative(tmp, k2, mTime + C2 * h);
+			
+			for (int i = 0; i < n; i++)
+				tmp[i] = y[i] + h * (A31 * k1[i] + A32 * k2[i]);
+			derivative(tmp, k3, mTime + C3 * h);
+			
+			for (int i = 0; i < n; i++)
+				tmp[i] = y[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+			derivative(tmp, k4, mTime + C4 * h);
+			
+			for (int i = 0; i < n; i++)
+				tmp[i] = y[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+			derivative(tmp, k5, mTime + C5 * h);
+			
+			for (int i = 0; i < n; i++)
+				tmp[i] = y[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65 * k5[i]);
+			derivative(tmp, k6, mTime + h);
+			
+			// 5th order solution, evaluated once more for the error estimate (and the next k1)
+			for (int i = 0; i < n; i++)
+				tmp[i] = y[i] + h * (A71 * k1[i] + A73 * k3[i] + A74 * k4[i] + A75 * k5[i] + A76 * k6[i]);
+			derivative(tmp, k7, mTime + h);
+			
+			// RMS of the local error scaled by the mixed tolerance
+			double sum = 0.0;
+			for (int i = 0; i < n; i++) 
+			{
+				double scale = mAbsTolerance + mRelTolerance * Math.max(Math.abs(y[i]), Math.abs(tmp[i]));
+				double e = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i] + E7 * k7[i]) / scale;
+				sum += e * e;
+			}
+			double norm = Math.sqrt(sum / n);
+			
+			if (norm <= 1.0 || h <= mMinAdaptiveStep) 
+			{
+				// Accept: tmp is the new state and TempOutputs its outputs
+				System.arraycopy(tmp, 0, y, 0, n);
+				System.arraycopy(mParams.TempOutputs, 0, mParams.outputs, 0, n);
+				mDPStages[0] = k7;
+				mDPStages[6] = k1;
+				mTime += h;
+				
+				double factor = (norm == 0.0) ? 5.0 : Math.min(5.0, Math.max(0.2, 0.9 * Math.pow(norm, -0.2)));
+				// a step shortened to land on maxStep says nothing about growing the step
+				if (h == mAdaptiveStep || factor < 1.0)
+					mAdaptiveStep = Math.max(mMinAdaptiveStep, h * factor);
+				return h;
+			}
+			
+			// Reject and retry smaller
+			mAdaptiveStep = Math.max(mMinAdaptiveStep, h * Math.max(0.2, 0.9 * Math.pow(norm, -0.25)));
+		}
+	}
+	
+	// dydt = f(y) at simulated time t, with the outputs of y left in TempOutputs
+	private void derivative(double[] y, double[] dydt, double t)
+	{
+		mPhaseY = y;
+		mPhaseDydt = dydt;
+		mPhaseTime = t;
+		
+		phase(PHASE_DERIV_OUTPUTS);
+		phase(PHASE_DERIV);
+		
+		mPhaseY = null;
+		mPhaseDydt = null;
+	}
+	
+	private void prepareAdaptive()
+	{
+		int n = mParams.circuitSize;
+		prepareWeights();
+		
+		if (mDPStages == null || mDPTemp.length != n) 
+		{
+			mDPStages = new double[7][n];
+			mDPTemp = new double[n];
+		}
+	}
+	
+	
+	// externalInputs[i] + weighted sum of x over the incoming connections of i, for one neuron
+	double synapticInput(int i, double[] x)
+	{
+		if (mSparse != null)
+			return mSparse.weightedInput(i, x, mParams.externalInputs[i]);
+		
+		int n = mParams.circuitSize;
+		return mKernel.accumulate(mParams.externalInputs[i], mParams.weights, i * n, x, 0, n);
+	}
+	
+	// synapticInputs[i] = externalInputs[i] + weighted sum of x over the incoming connections of i
+	private void weightedInputs(double[] x, int lo, int hi)
+	{
+		if (mDelays != null)	// delayed in phase()
+			x = mDelayedSources;
+		
+		if (mDelta != null)	// already given x in phase()
+			mDelta.apply(mParams, mKernel, mParams.synapticInputs, lo, hi);
+		else if (mSparse != null)
+			mSparse.weightedInputs(x, mParams.externalInputs, mParams.synapticInputs, lo, hi);
+		else
+			mKernel.weightedInputs(mParams.weights, x, mParams.externalInputs, mParams.synapticInputs, mParams.circuitSize, lo, hi);
+	}
+	
+	// Add the outputs at the end of a step to the delay history
+	private void recordDelays()
+	{
+		if (mDelays != null)
+			mDelays.record(mParams.outputs, mTime);
+	}
+	
+	// Pick dense or sparse stepping. After single-weight edits the compressed
+	// weights are patched in place; they are rebuilt from the dense weights
+	// only after bulk edits, or when switching to sparse stepping.
+	private void prepareWeights()
+	{
+		if (mDelays != null)
+			mDelays.prepare(mParams.outputs, mTime, mTimeStep);
+		
+		int version = mParams.getWeightsVersion();
+		if (version == mSparseVersion) 
+			return;
+		
+		int n = mParams.circuitSize;
+		boolean sparse;
+		
+		switch (mConnectivity) 
+		{
+			case SPARSE:	sparse = true; break;
+			case AUTO:		sparse = mParams.getConnectionCount() < SPARSE_DENSITY_THRESHOLD * n * n; break;
+			default:		sparse = false; break;
+		}
+		
+		if (!sparse)
+			mSparse = null;
+		else if (mSparse != null && mParams.hasWeightEditsSince(mSparseVersion)) 
+		{
+			for (int v = mSparseVersion + 1; v - version <= 0; v++) 
+			{
+				int w = mParams.getWeightEditIndex(v);
+				mSparse.setConnectionWeight(w % n, w / n, mParams.weights[w]);
+			}
+		}
+		else
+			mSparse = CTRNNSparseWeights.fromDense(mParams.weights, n);
+		
+		mSparseVersion = version;
+	}
+	
 	
 	/////////////////////////////////////////////////////////
 	// Accessors
@@ -166,7 +1007,7 @@ public class CTRNN implements java.io.Serializable
 	
 	public boolean getIsCenterWeighted() 
 	{
-		return mCenterWeighted;
+		return mCenterWeighted || mParams.isCenterCrossing();
 	}
 	
 	public double getTimeStep() 
@@ -179,10 +1020,176 @@ public class CTRNN implements java.io.Serializable
 		mTimeStep = newTimeStep;
 	}
 	
+	public CTRNNKernel getKernel() 
+	{
+		return mKernel;
+	}
+	
+	public void setKernel(CTRNNKernel kernel) 
+	{
+		mKernel = kernel;
+	}
+	
+	public double getTime() 
+	{
+		return mTime;
+	}
+	
+	public void setTime(double t) 
+	{
+		mTime = t;
+	}
+	
+	// Start a new run at time 0 that depends only on the settings: forget the
+	// adaptive step size (back to one timestep), convergence, delay history,
+	// multi-rate intervals and incremental sums left over from earlier runs
+	public void restart() 
+	{
+		mTime = 0.0;
+		mAdaptiveStep = mTimeStep;
+		resetConvergence();
+		mMultiRate = null;
+		if (mDelays != null)
+			mDelays.invalidate();
+		if (mDelta != null)
+			mDelta.invalidate();
+	}
+	
+	public Integrator getIntegrator() 
+	{
+		return mIntegrator;
+	}
+	
+	public void setIntegrator(Integrator integrator) 
+	{
+		mIntegrator = integrator;
+	}
+	
+	public void setTolerances(double absTolerance, double relTolerance) 
+	{
+		mAbsTolerance = absTolerance;
+		mRelTolerance = relTolerance;
+	}
+	
+	public double getAbsTolerance() 
+	{
+		return mAbsTolerance;
+	}
+	
+	public double getRelTolerance() 
+	{
+		return mRelTolerance;
+	}
+	
+	// Step size the adaptive integrator will try next
+	public double getAdaptiveStep() 
+	{
+		return mAdaptiveStep;
+	}
+	
+	public void setAdaptiveStep(double step) 
+	{
+		mAdaptiveStep = step;
+	}
+	
+	public CTRNNParallelStepper getParallelStepper() 
+	{
+		return mParallel;
+	}
+	
+	// Share a stepper (and its thread pool) between circuits, or pass null to step serially
+	public void setParallelStepper(CTRNNParallelStepper stepper) 
+	{
+		mParallel = stepper;
+	}
+	
+	// Keep synaptic sums up to date by propagating only the outputs that moved
+	// more than epsilon, with a full recompute every refreshInterval updates
+	// (an RK4 step is four updates). Uses the dense weights.
+	public void enableDeltaPropagation(double epsilon, int refreshInterval) 
+	{
+		mDelta = new CTRNNDeltaPropagator(mParams.circuitSize, epsilon, refreshInterval);
+	}
+	
+	public void disableDeltaPropagation() 
+	{
+		mDelta = null;
+	}
+	
+	public CTRNNDeltaPropagator getDeltaPropagator() 
+	{
+		return mDelta;
+	}
+	
+	// Delay every connection out of neuron from by delay time units (see
+	// CTRNNDelays). The history is sampled once per timestep, so with
+	// DORMANDPRINCE delays are only exact when stepping through step()/advance().
+	public void setSynapticDelay(int from, double delay) 
+	{
+		if (mDelays == null)
+			mDelays = new CTRNNDelays(mParams.circuitSize);
+		mDelays.setDelay(from, delay);
+		resetConvergence();
+	}
+	
+	public double getSynapticDelay(int from) 
+	{
+		return (mDelays == null) ? 0.0 : mDelays.getDelay(from);
+	}
+	
+	// Remove all delays and free their history
+	public void clearSynapticDelays() 
+	{
+		mDelays = null;
+		mDelayedSources = null;
+		resetConvergence();
+	}
+	
+	// Multi-rate Euler steps each neuron with the largest power-of-two multiple
+	// of the timestep (up to 2^maxBand) that stays within stepFraction * tau
+	public void setMultiRate(double stepFraction, int maxBand) 
+	{
+		mMultiRateStepFraction = stepFraction;
+		mMultiRateMaxBand = maxBand;
+		mMultiRate = null;
+	}
+	
+	public Connectivity getConnectivity() 
+	{
+		return mConnectivity;
+	}
+	
+	public void setConnectivity(Connectivity connectivity) 
+	{
+		mConnectivity = connectivity;
+		mSparseVersion = -1;
+	}
+	
+	// True when the last step used the sparse kernels
+	public boolean getIsSparse() 
+	{
+		return mSparse != null;
+	}
+	
 	public void setTransferFunction(TransferFunction tf)
 	{
 		System.out.println("setTransferFunction " + tf);
-		transfunc = tf;
+		mParams.setTransferFunction(tf);
+	}
+	
+	public TransferFunction getTransferFunction() 
+	{
+		return mParams.getTransferFunction();
+	}
+	
+	public TransferAccuracy getTransferAccuracy() 
+	{
+		return mParams.getTransferAccuracy();
+	}
+	
+	public void setTransferAccuracy(TransferAccuracy accuracy) 
+	{
+		mParams.setTransferAccuracy(accuracy);
 	}	
 }
 
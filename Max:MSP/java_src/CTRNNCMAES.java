@@ -0,0 +1,581 @@
+//
+//  CTRNNCMAES.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+// CMA-ES (Hansen's covariance matrix adaptation evolution strategy) over
+// circuit genomes (see CTRNNSettings.getGenome), maximizing the fitness.
+// Each generation lambda candidates are sampled from N(mean, sigma^2 C),
+// evaluated in parallel by a CTRNNEvaluator, and the best mu of them move the
+// mean, the step size and C.
+//
+// The full variant keeps C as a genome length squared matrix: sampling and the
+// rank-mu update are O(length^2) per candidate, and C is only re-decomposed
+// (tred2/tql2) once enough updates have accumulated to be worth O(length^3).
+// The separable variant keeps only the diagonal of C, with correspondingly
+// faster learning rates, so a generation is O(lambda * length); use it for
+// large circuits, where a 100 neuron genome has over 10000 genes.
+//
+// Candidates outside [-1, 1] are clamped before evaluation, and the clamped
+// candidate is what the update learns from, which keeps the mean inside the ranges.
+public class CTRNNCMAES
+{
+	private final CTRNNEvaluator mEvaluator;
+	private final MersenneTwisterFast mRandom;
+	private final boolean mSeparable;
+	private final int n;			// genome length
+	private final int mLambda, mMu;
+	
+	// Strategy parameters
+	private final double[] mWeights;
+	private final double mMuEff, mCc, mCs, mC1, mCMu, mDamps, mChiN;
+	
+	// Distribution
+	private double[] mMean, mOldMean;
+	private double mSigma;
+	private double[] mPc, mPs;
+	private double[][] C, B;		// full: covariance (upper triangle) and its eigenvectors
+	private double[] D;				// sqrt of C's eigenvalues (full) or diagonal (separable)
+	private double[] mDiagC;		// separable: the diagonal of C
+	private int mEigenGeneration;	// generation of the last decomposition
+	
+	// Candidates
+	private final double[][] mCandidates;
+	private final double[] mFitness;
+	private final int[] mAll;
+	private final Integer[] mRanking;	// candidates sorted by fitness, best first
+	private final double[] mZ, mY, mTemp;
+	
+	// Best first, with NaN last: a diverged candidate must get no recombination weight
+	private final Comparator<Integer> mByFitness = new Comparator<Integer>() 
+	{
+		public int compare(Integer a, Integer b) 
+		{
+			double fa = mFitness[a], fb = mFitness[b];
+			if (Double.isNaN(fa) || Double.isNaN(fb))
+				return Boolean.compare(Double.isNaN(fa), Double.isNaN(fb));
+			return Double.compare(fb, fa);
+		}
+	};
+	
+	private int mGeneration = 0;
+	private double mBestFitness = Double.NEGATIVE_INFINITY;
+	private final double[] mBestGenome;
+	
+	
+	// lambda <= 0 picks the default 4 + 3 ln(length) candidates per generation
+	public CTRNNCMAES(CTRNNEvaluator evaluator, int lambda, double sigma, boolean separable, long seed) 
+	{
+		mEvaluator = evaluator;
+		mRandom = new MersenneTwisterFast(seed);
+		mSeparable = separable;
+		n = evaluator.getGenomeLength();
+		mLambda = (lambda > 0) ? Math.max(2, lambda) : 4 + (int) Math.floor(3.0 * Math.log(n));
+		mMu = mLambda / 2;
+		mSigma = sigma;
+		
+		// log-rank recombination weights
+		mWeights = new double[mMu];
+		double sum = 0.0, sumSq = 0.0;
+		for (int i = 0; i < mMu; i++) 
+		{
+			mWeights[i] = Math.log(mMu + 0.5) - Math.log(i + 1);
+			sum += mWeights[i];
+		}
+		for (int i = 0; i < mMu; i++) 
+		{
+			mWeights[i] /= sum;
+			sumSq += mWeights[i] * mWeights[i];
+		}
+		mMuEff = 1.0 / sumSq;
+		
+		mCc = (4.0 + mMuEff / n) / (n + 4.0 + 2.0 * mMuEff / n);
+		mCs = (mMuEff + 2.0) / (n + mMuEff + 5.0);
+		double c1 = 2.0 / ((n + 1.3) * (n + 1.3) + mMuEff);
+		double cmu = 2.0 * (mMuEff - 2.0 + 1.0 / mMuEff) / ((n + 2.0) * (n + 2.0) + mMuEff);
+		if (separable) 
+		{
+			// a diagonal has far fewer parameters to learn (Ros & Hansen)
+			c1 *= (n + 2.0) / 3.0;
+			cmu *= (n + 2.0) / 3.0;
+		}
+		mC1 = Math.min(c1, 1.0);
+		mCMu = Math.min(cmu, 1.0 - mC1);
+		mDamps = 1.0 + 2.0 * Math.max(0.0, Math.sqrt((mMuEff - 1.0) / (n + 1.0)) - 1.0) + mCs;
+		mChiN = Math.sqrt(n) * (1.0 - 1.0 / (4.0 * n) + 1.0 / (21.0 * n * n));
+		
+		mMean = new double[n];
+		mOldMean = new double[n];
+		mPc = new double[n];
+		mPs = new double[n];
+		D = new double[n];
+		Arrays.fill(D, 1.0);
+		
+		if (separable) 
+		{
+			mDiagC = new double[n];
+			Arrays.fill(mDiagC, 1.0);
+		}
+		else 
+		{
+			C = new double[n][n];
+			B = new double[n][n];
+			for (int i = 0; i < n; i++) 
+			{
+				C[i][i] = 1.0;
+				B[i][i] = 1.0;
+			}
+		}
+		
+		mCandidates = new double[mLambda][n];
+		mFitness = new double[mLambda];
+		mAll = new int[mLambda];
+		mRanking = new Integer[mLambda];
+		for (int k = 0; k < mLambda; k++)
+			mAll[k] = k;
+		mZ = new double[n];
+		mY = new double[n];
+		mTemp = new double[n];
+		mBestGenome = new double[n];
+	}
+	
+	// Sample, evaluate and learn from one generation. Returns the best fitness
+	// of the generation.
+	public double generation() 
+	{
+		// Sample x = mean + sigma * B D z, clamped into the gene range
+		for (int k = 0; k < mLambda; k++) 
+		{
+			double[] x = mCandidates[k];
+			for (int i = 0; i < n; i++)
+				mZ[i] = D[i] * mRandom.nextGaussian();
+			
+			if (mSeparable)
+				System.arraycopy(mZ, 0, mY, 0, n);
+			else
+				multiply(B, mZ, mY);
+			
+			for (int i = 0; i < n; i++)
+				x[i] = Math.max(-1.0, Math.min(1.0, mMean[i] + mSigma * mY[i]));
+		}
+		
+		mEvaluator.evaluate(mCandidates, mFitness, mAll, mLambda);
+		
+		for (int k = 0; k < mLambda; k++)
+			mRanking[k] = k;
+		Arrays.sort(mRanking, mByFitness);
+		
+		int best = mRanking[0];
+		if (mFitness[best] > mBestFitness) 
+		{
+			mBestFitness = mFitness[best];
+			System.arraycopy(mCandidates[best], 0, mBestGenome, 0, n);
+		}
+		
+		update();
+		mGeneration++;
+		return mFitness[best];
+	}
+	
+	// Run generations generations. Returns the best fitness found so far.
+	public double run(int generations) 
+	{
+		for (int g = 0; g < generations; g++)
+			generation();
+		return mBestFitness;
+	}
+	
+	private void update() 
+	{
+		// New mean from the best mu candidates
+		System.arraycopy(mMean, 0, mOldMean, 0, n);
+		Arrays.fill(mMean, 0.0);
+		for (int r = 0; r < mMu; r++) 
+		{
+			double[] x = mCandidates[mRanking[r]];
+			double w = mWeights[r];
+			for (int i = 0; i < n; i++)
+				mMean[i] += w * x[i];
+		}
+		
+		// mY = mean shift in units of sigma, mTemp = C^-1/2 mY
+		for (int i = 0; i < n; i++)
+			mY[i] = (mMean[i] - mOldMean[i]) / mSigma;
+		
+		if (mSeparable) 
+		{
+			for (int i = 0; i < n; i++)
+				mTemp[i] = mY[i] / D[i];
+		}
+		else 
+		{
+			multiplyTransposed(B, mY, mZ);
+			for (int i = 0; i < n; i++)
+				mZ[i] /= D[i];
+			multiply(B, mZ, mTemp);
+		}
+		
+		// Evolution paths
+		double csNorm = Math.sqrt(mCs * (2.0 - mCs) * mMuEff);
+		double psLength = 0.0;
+		for (int i = 0; i < n; i++) 
+		{
+			mPs[i] = (1.0 - mCs) * mPs[i] + csNorm * mTemp[i];
+			psLength += mPs[i] * mPs[i];
+		}
+		psLength = Math.sqrt(psLength);
+		
+		boolean hsig = psLength / Math.sqrt(1.0 - Math.pow(1.0 - mCs, 2.0 * (mGeneration + 1))) / mChiN < 1.4 + 2.0 / (n + 1.0);
+		double ccNorm = Math.sqrt(mCc * (2.0 - mCc) * mMuEff);
+		for (int i = 0; i < n; i++)
+			mPc[i] = (1.0 - mCc) * mPc[i] + (hsig ? ccNorm * mY[i] : 0.0);
+		
+		// Rank-one and rank-mu covariance updates
+		double keep = 1.0 - mC1 - mCMu + (hsig ? 0.0 : mC1 * mCc * (2.0 - mCc));
+		
+		if (mSeparable) 
+		{
+			for (int i = 0; i < n; i++) 
+			{
+				double rankMu = 0.0;
+				for (int r = 0; r < mMu; r++) 
+				{
+					double y = (mCandidates[mRanking[r]][i] - mOldMean[i]) / mSigma;
+					rankMu += mWeights[r] * y * y;
+				}
+				mDiagC[i] = keep * mDiagC[i] + mC1 * mPc[i] * mPc[i] + mCMu * rankMu;
+				D[i] = Math.sqrt(mDiagC[i]);
+			}
+		}
+		else 
+		{
+			for (int i = 0; i < n; i++) 
+			{
+				double[] row = C[i];
+				for (int j = i; j < n; j++)
+					row[j] = keep * row[j] + mC1 * mPc[i] * mPc[j];
+			}
+			
+			// each selected step contributes weight * y y^T to the upper triangle
+			for (int r = 0; r < mMu; r++) 
+			{
+				double[] x = mCandidates[mRanking[r]];
+				double scale = mCMu * mWeights[r] / (mSigma * mSigma);
+				for (int i = 0; i < n; i++)
+					mZ[i] = x[i] - mOldMean[i];
+				for (int i = 0; i < n; i++) 
+				{
+					double[] row = C[i];
+					double yi = scale * mZ[i];
+					for (int j = i; j < n; j++)
+						row[j] += yi * mZ[j];
+				}
+			}
+		}
+		
+		// Step size
+		mSigma *= Math.exp((mCs / mDamps) * (psLength / mChiN - 1.0));
+		
+		// Re-decompose C once it has moved enough to matter: Hansen's lazy
+		// update waits lambda / ((c1 + cmu) n 10) evaluations, i.e. this many generations
+		if (!mSeparable && (mGeneration - mEigenGeneration) > 1.0 / ((mC1 + mCMu) * n * 10.0)) 
+			decompose();
+	}
+	
+	// B D^2 B^T = C
+	private void decompose() 
+	{
+		for (int i = 0; i < n; i++)
+			for (int j = i; j < n; j++)
+				B[i][j] = B[j][i] = C[i][j];
+		
+		tred2(B, D, mZ);
+		tql2(B, D, mZ);
+		
+		for (int i = 0; i < n; i++)
+			D[i] = Math.sqrt(Math.max(D[i], 1e-20));
+		
+		mEigenGeneration = mGeneration;
+	}
+	
+	// out = m v
+	private static void multiply(double[][] m, double[] v, double[] out) 
+	{
+		int n = v.length;
+		for (int i = 0; i < n; i++) 
+		{
+			double[] row = m[i];
+			double sum = 0.0;
+			for (int j = 0; j < n; j++)
+				sum += row[j] * v[j];
+			out[i] = sum;
+		}
+	}
+	
+	// out = m^T v
+	private static void multiplyTransposed(double[][] m, double[] v, double[] out) 
+	{
+		int n = v.length;
+		Arrays.fill(out, 0.0);
+		for (int i = 0; i < n; i++) 
+		{
+			double[] row = m[i];
+			double vi = v[i];
+			for (int j = 0; j < n; j++)
+				out[j] += row[j] * vi;
+		}
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Symmetric eigendecomposition (tred2 / tql2, after EISPACK via JAMA)
+	/////////////////////////////////////////////////////////
+	
+	// Householder reduction of the symmetric V to tridiagonal form: d the
+	// diagonal, e the subdiagonal, V the accumulated transformations
+	private static void tred2(double[][] V, double[] d, double[] e) 
+	{
+		int n = d.length;
+		for (int j = 0; j < n; j++)
+			d[j] = V[n - 1][j];
+		
+		for (int i = n - 1; i > 0; i--) 
+		{
+			double scale = 0.0;
+			double h = 0.0;
+			for (int k = 0; k < i; k++)
+				scale += Math.abs(d[k]);
+			
+			if (scale == 0.0) 
+			{
+				e[i] = d[i - 1];
+				for (int j = 0; j < i; j++) 
+				{
+					d[j] = V[i - 1][j];
+					V[i][j] = 0.0;
+					V[j][i] = 0.0;
+				}
+			}
+			else 
+			{
+				for (int k = 0; k < i; k++) 
+				{
+					d[k] /= scale;
+					h += d[k] * d[k];
+				}
+				double f = d[i - 1];
+				double g = Math.sqrt(h);
+				if (f > 0)
+					g = -g;
+				e[i] = scale * g;
+				h = h - f * g;
+				d[i - 1] = f - g;
+				for (int j = 0; j < i; j++)
+					e[j] = 0.0;
+				
+				for (int j = 0; j < i; j++) 
+				{
+					f = d[j];
+					V[j][i] = f;
+					g = e[j] + V[j][j] * f;
+					for (int k = j + 1; k <= i - 1; k++) 
+					{
+						g += V[k][j] * d[k];
+						e[k] += V[k][j] * f;
+					}
+					e[j] = g;
+				}
+				f = 0.0;
+				for (int j = 0; j < i; j++) 
+				{
+					e[j] /= h;
+					f += e[j] * d[j];
+				}
+				double hh = f / (h + h);
+				for (int j = 0; j < i; j++)
+					e[j] -= hh * d[j];
+				for (int j = 0; j < i; j++) 
+				{
+					f = d[j];
+					g = e[j];
+					for (int k = j; k <= i - 1; k++)
+						V[k][j] -= (f * e[k] + g * d[k]);
+					d[j] = V[i - 1][j];
+					V[i][j] = 0.0;
+				}
+			}
+			d[i] = h;
+		}
+		
+		// Accumulate transformations
+		for (int i = 0; i < n - 1; i++) 
+		{
+			V[n - 1][i] = V[i][i];
+			V[i][i] = 1.0;
+			double h = d[i + 1];
+			if (h != 0.0) 
+			{
+				for (int k = 0; k <= i; k++)
+					d[k] = V[k][i + 1] / h;
+				for (int j = 0; j <= i; j++) 
+				{
+					double g = 0.0;
+					for (int k = 0; k <= i; k++)
+						g += V[k][i + 1] * V[k][j];
+					for (int k = 0; k <= i; k++)
+						V[k][j] -= g * d[k];
+				}
+			}
+			for (int k = 0; k <= i; k++)
+				V[k][i + 1] = 0.0;
+		}
+		for (int j = 0; j < n; j++) 
+		{
+			d[j] = V[n - 1][j];
+			V[n - 1][j] = 0.0;
+		}
+		V[n - 1][n - 1] = 1.0;
+		e[0] = 0.0;
+	}
+	
+	// QL with implicit shifts on the tridiagonal (d, e): d becomes the
+	// eigenvalues and the columns of V the eigenvectors
+	private static void tql2(double[][] V, double[] d, double[] e) 
+	{
+		int n = d.length;
+		for (int i = 1; i < n; i++)
+			e[i - 1] = e[i];
+		e[n - 1] = 0.0;
+		
+		double f = 0.0;
+		double tst1 = 0.0;
+		double eps = Math.pow(2.0, -52.0);
+		
+		for (int l = 0; l < n; l++) 
+		{
+			// Find small subdiagonal element
+			tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+			int m = l;
+			while (m < n) 
+			{
+				if (Math.abs(e[m]) <= eps * tst1)
+					break;
+				m++;
+			}
+			if (m == n)
+				m = n - 1;
+			
+			// If m == l, d[l] is an eigenvalue, otherwise iterate
+			if (m > l) 
+			{
+				do 
+				{
+					double g = d[l];
+					double p = (d[l + 1] - g) / (2.0 * e[l]);
+					double r = Math.hypot(p, 1.0);
+					if (p < 0)
+						r = -r;
+					d[l] = e[l] / (p + r);
+					d[l + 1] = e[l] * (p + r);
+					double dl1 = d[l + 1];
+					double h = g - d[l];
+					for (int i = l + 2; i < n; i++)
+						d[i] -= h;
+					f += h;
+					
+					// Implicit QL transformation
+					p = d[m];
+					double c = 1.0, c2 = c, c3 = c;
+					double el1 = e[l + 1];
+					double s = 0.0, s2 = 0.0;
+					for (int i = m - 1; i >= l; i--) 
+					{
+						c3 = c2;
+						c2 = c;
+						s2 = s;
+						g = c * e[i];
+						h = c * p;
+						r = Math.hypot(p, e[i]);
+						e[i + 1] = s * r;
+						s = e[i] / r;
+						c = p / r;
+						p = c * d[i] - s * g;
+						d[i + 1] = h + s * (c * g + s * d[i]);
+						
+						// Accumulate transformation
+						for (int k = 0; k < n; k++) 
+						{
+							h = V[k][i + 1];
+							V[k][i + 1] = s * V[k][i] + c * h;
+							V[k][i] = c * V[k][i] - s * h;
+						}
+					}
+					p = -s * s2 * c3 * el1 * e[l] / dl1;
+					e[l] = s * p;
+					d[l] = c * p;
+				}
+				while (Math.abs(e[l]) > eps * tst1);
+			}
+			d[l] = d[l] + f;
+			e[l] = 0.0;
+		}
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	// Start the search from genome instead of the middle of every range
+	public void setMean(double[] genome) 
+	{
+		System.arraycopy(genome, 0, mMean, 0, n);
+	}
+	
+	public double[] getMean() 
+	{
+		return mMean.clone();
+	}
+	
+	public double getSigma() 
+	{
+		return mSigma;
+	}
+	
+	public int getLambda() 
+	{
+		return mLambda;
+	}
+	
+	public boolean isSeparable() 
+	{
+		return mSeparable;
+	}
+	
+	public int getGeneration() 
+	{
+		return mGeneration;
+	}
+	
+	public double getBestFitness() 
+	{
+		return mBestFitness;
+	}
+	
+	public double[] getBestGenome() 
+	{
+		return mBestGenome.clone();
+	}
+	
+	// Load the best circuit found so far into settings
+	public void getBestCircuit(CTRNNSettings settings) 
+	{
+		settings.setGenome(mBestGenome);
+	}
+}
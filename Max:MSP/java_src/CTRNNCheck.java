@@ -0,0 +1,1083 @@
+//
+//  CTRNNCheck.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// Regression checks, run outside Max with
+//   javac -sourcepath . CTRNNCheck.java && java CTRNNCheck
+// (javac only pulls in the classes used here, so max.jar is not needed).
+// Every integration path is compared against a plain reference Euler/RK4
+// written out below, and the edge cases that once slipped through are
+// replayed. The searches are run on known landscapes, and the statistics
+// and analyses against direct calculations or known answers. Prints one
+// line per check and exits with status 1 if any failed.
+public class CTRNNCheck 
+{
+	private static int sChecks, sFailures;
+	
+	
+	public static void main(String[] args) 
+	{
+		checkReferenceIntegrators();
+		checkMultiStep();
+		checkConnectivity();
+		checkParallelAndDelta();
+		checkFastMath();
+		checkFloat();
+		checkOtherIntegrators();
+		checkPopulation();
+		checkDelays();
+		checkCenterCrossing();
+		checkConvergence();
+		checkMultiRateReset();
+		checkMutualInformationTies();
+		
+		checkEvolution();
+		checkEvolutionNaN();
+		checkMicrobialEvolution();
+		checkEvaluatorRepeatable();
+		checkCMAES();
+		
+		checkFitnessMeasures();
+		checkOnlineStats();
+		checkSpectra();
+		checkLyapunov();
+		checkDFA();
+		checkIntermittency();
+		
+		System.out.println(sChecks - sFailures + " of " + sChecks + " checks passed");
+		System.exit(sFailures > 0 ? 1 : 0);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Integration paths
+	/////////////////////////////////////////////////////////
+	
+	private static void checkReferenceIntegrators() 
+	{
+		CTRNNSettings s = randomCircuit(24, 1.0, 1);
+		CTRNNSettings r = new CTRNNSettings(s);
+		CTRNN ctrnn = new CTRNN(s);
+		
+		for (int k = 0; k < 500; k++) 
+		{
+			ctrnn.EulerStep();
+			referenceEuler(r, 0.01);
+		}
+		check("Euler matches the reference", maxDifference(s.states, r.states), 1e-12);
+		
+		for (int k = 0; k < 500; k++) 
+		{
+			ctrnn.RungaKutta4Step();
+			referenceRK4(r, 0.01);
+		}
+		check("RK4 matches the reference", maxDifference(s.states, r.states), 1e-12);
+	}
+	
+	private static void checkMultiStep() 
+	{
+		CTRNN.Integrator[] integrators = { CTRNN.Integrator.EULER, CTRNN.Integrator.RUNGEKUTTA4 };
+		
+		for (int m = 0; m < integrators.length; m++) 
+		{
+			CTRNNSettings a = randomCircuit(16, 1.0, 2), b = new CTRNNSettings(a);
+			CTRNN ca = new CTRNN(a), cb = new CTRNN(b);
+			ca.setIntegrator(integrators[m]);
+			cb.setIntegrator(integrators[m]);
+			
+			double[] record = new double[10 * 16];
+			int samples = ca.advance(1000, record, 0, 100);
+			double recordError = (samples == 10) ? 0.0 : 1.0;
+			
+			for (int k = 1; k <= 1000; k++) 
+			{
+				cb.step();
+				if (k % 100 == 0)
+					recordError = Math.max(recordError, maxDifference(b.outputs, record, (k / 100 - 1) * 16));
+			}
+			check("advance() " + integrators[m] + " matches step()", maxDifference(a.states, b.states), 1e-12);
+			check("advance() " + integrators[m] + " records every 100th step", recordError, 1e-12);
+			check("advance() " + integrators[m] + " keeps time", Math.abs(ca.getTime() - cb.getTime()), 1e-9);
+		}
+	}
+	
+	private static void checkConnectivity() 
+	{
+		CTRNNSettings a = randomCircuit(120, 0.05, 3), b = new CTRNNSettings(a);
+		CTRNN sparse = new CTRNN(a), dense = new CTRNN(b);
+		sparse.setConnectivity(CTRNN.Connectivity.SPARSE);
+		dense.setConnectivity(CTRNN.Connectivity.DENSE);
+		
+		// single edits between steps are patched, bursts of more than the edit
+		// log and direct writes are rebuilt
+		MersenneTwisterFast rng = new MersenneTwisterFast(30);
+		for (int k = 0; k < 600; k++) 
+		{
+			int edits = (k % 200 == 0) ? 100 : rng.nextInt(3);
+			for (int e = 0; e < edits; e++) 
+			{
+				int from = rng.nextInt(120), to = rng.nextInt(120);
+				double w = rng.nextBoolean(0.3) ? 0.0 : rng.nextGaussian();
+				a.setConnectionWeight(from, to, w);
+				b.setConnectionWeight(from, to, w);
+			}
+			if (k == 300) 
+			{
+				a.weights[5] = b.weights[5] = 1.5;
+				a.weightsChanged();
+				b.weightsChanged();
+			}
+			sparse.step();
+			dense.step();
+		}
+		check("sparse matches dense through weight edits", maxDifference(a.states, b.states), 1e-12);
+		check("connection count is kept up to date",
+			Math.abs(a.getConnectionCount() - CTRNNSparseWeights.countConnections(a.weights, 120)), 0.0);
+		check("sparse stepping was used", sparse.getIsSparse() ? 0.0 : 1.0, 0.0);
+	}
+	
+	private static void checkParallelAndDelta() 
+	{
+		CTRNNSettings a = randomCircuit(96, 1.0, 4), b = new CTRNNSettings(a), c = new CTRNNSettings(a);
+		CTRNN serial = new CTRNN(a), parallel = new CTRNN(b), delta = new CTRNN(c);
+		
+		CTRNNParallelStepper stepper = new CTRNNParallelStepper(new java.util.concurrent.ForkJoinPool(4));
+		stepper.setThreshold(1);
+		parallel.setParallelStepper(stepper);
+		delta.enableDeltaPropagation(0.0, 50);
+		
+		for (int k = 0; k < 300; k++) 
+		{
+			if (k == 150) 
+			{
+				a.setConnectionWeight(3, 7, 2.0);
+				b.setConnectionWeight(3, 7, 2.0);
+				c.setConnectionWeight(3, 7, 2.0);
+			}
+			serial.step();
+			parallel.step();
+			delta.step();
+		}
+		stepper.shutdown();
+		
+		check("parallel matches serial", maxDifference(a.states, b.states), 1e-12);
+		check("delta propagation (epsilon 0) matches full sums", maxDifference(a.states, c.states), 1e-9);
+	}
+	
+	private static void checkFastMath() 
+	{
+		CTRNN.TransferFunction[] functions = CTRNN.TransferFunction.values();
+		double mix = CTRNN.mA * CTRNNFastMath.TANH_MAX_ERROR + (1.0 - CTRNN.mA) * CTRNNFastMath.SIN_MAX_ERROR;
+		double mixTable = CTRNN.mA * CTRNNFastMath.TABLE_TANH_MAX_ERROR + (1.0 - CTRNN.mA) * CTRNNFastMath.SIN_MAX_ERROR;
+		double[] polynomialBounds = { CTRNNFastMath.SIGMOID_MAX_ERROR, CTRNNFastMath.TANH_MAX_ERROR, mix };
+		double[] tableBounds = { CTRNNFastMath.TABLE_SIGMOID_MAX_ERROR, CTRNNFastMath.TABLE_TANH_MAX_ERROR, mixTable };
+		
+		for (int f = 0; f < functions.length; f++) 
+		{
+			double polynomial = 0.0, table = 0.0;
+			for (int k = -500000; k <= 500000; k++) 
+			{
+				double y = k * 1e-4 + 0.3e-4;
+				double exact = CTRNN.genericTransferFunction(functions[f], CTRNN.TransferAccuracy.EXACT, y);
+				polynomial = Math.max(polynomial, Math.abs(CTRNN.genericTransferFunction(functions[f], CTRNN.TransferAccuracy.POLYNOMIAL, y) - exact));
+				table = Math.max(table, Math.abs(CTRNN.genericTransferFunction(functions[f], CTRNN.TransferAccuracy.TABLE, y) - exact));
+			}
+			check("POLYNOMIAL " + functions[f] + " within its bound", polynomial, polynomialBounds[f]);
+			check("TABLE " + functions[f] + " within its bound", table, tableBounds[f]);
+		}
+	}
+	
+	private static void checkFloat() 
+	{
+		CTRNNSettings s = randomCircuit(32, 1.0, 5);
+		CTRNNSettingsFloat f = new CTRNNSettingsFloat(s);
+		CTRNN ctrnn = new CTRNN(s);
+		CTRNNFloat ctrnnFloat = new CTRNNFloat(f);
+		
+		for (int k = 0; k < 1000; k++) 
+		{
+			ctrnn.RungaKutta4Step();
+			ctrnnFloat.RungaKutta4Step();
+		}
+		
+		double error = 0.0;
+		for (int i = 0; i < 32; i++)
+			error = Math.max(error, Math.abs(s.outputs[i] - f.outputs[i]));
+		check("float RK4 stays near double at t = 10", error, 1e-4);
+	}
+	
+	private static void checkOtherIntegrators() 
+	{
+		// Reference: RK4 at a hundredth of the timestep
+		CTRNNSettings r = randomCircuit(12, 1.0, 6);
+		CTRNNSettings dp = new CTRNNSettings(r), ee = new CTRNNSettings(r), mr = new CTRNNSettings(r);
+		for (int k = 0; k < 100000; k++)
+			referenceRK4(r, 0.0001);
+		
+		CTRNN adaptive = new CTRNN(dp);
+		adaptive.setTolerances(1e-9, 1e-9);
+		adaptive.integrateAdaptive(10.0);
+		check("Dormand-Prince within tolerance of fine RK4", maxDifference(dp.states, r.states), 1e-6);
+		
+		CTRNN exponential = new CTRNN(ee);
+		exponential.setTimeStep(0.001);
+		exponential.setIntegrator(CTRNN.Integrator.EXPONENTIAL_EULER);
+		exponential.advance(10000);
+		check("exponential Euler is first order", maxDifference(ee.states, r.states), 1e-2);
+		
+		CTRNN multiRate = new CTRNN(mr);
+		multiRate.setTimeStep(0.001);
+		multiRate.setIntegrator(CTRNN.Integrator.MULTIRATE_EULER);
+		multiRate.setMultiRate(0.02, 8);
+		multiRate.advance(10000);
+		check("multi-rate Euler is first order", maxDifference(mr.states, r.states), 1e-2);
+	}
+	
+	private static void checkPopulation() 
+	{
+		CTRNNSettings a = randomCircuit(10, 1.0, 7), b = randomCircuit(10, 1.0, 8);
+		CTRNNPopulation population = new CTRNNPopulation(2, 10);
+		population.load(0, a);
+		population.load(1, b);
+		
+		CTRNN ca = new CTRNN(a), cb = new CTRNN(b);
+		for (int k = 0; k < 200; k++) 
+		{
+			population.RungaKutta4Step();
+			ca.RungaKutta4Step();
+			cb.RungaKutta4Step();
+		}
+		
+		CTRNNSettings pa = new CTRNNSettings(a), pb = new CTRNNSettings(b);
+		population.store(0, pa);
+		population.store(1, pb);
+		check("population RK4 matches single circuits",
+			Math.max(maxDifference(pa.states, a.states), maxDifference(pb.states, b.states)), 1e-12);
+		
+		// Storing over a circuit that has already stepped must not leave its
+		// sparse weights, connectivity choice or delta sums behind
+		checkPopulationStore("SPARSE", CTRNN.Connectivity.SPARSE, false, 0.05, 0.05);
+		checkPopulationStore("AUTO, sparse over dense", CTRNN.Connectivity.AUTO, false, 1.0, 0.05);
+		checkPopulationStore("AUTO, dense over sparse", CTRNN.Connectivity.AUTO, false, 0.05, 1.0);
+		checkPopulationStore("delta propagation", CTRNN.Connectivity.AUTO, true, 1.0, 1.0);
+	}
+	
+	private static void checkPopulationStore(String name, CTRNN.Connectivity connectivity, boolean delta, double oldDensity, double newDensity) 
+	{
+		CTRNNSettings s = randomCircuit(120, oldDensity, 14);
+		s.setCenterCrossing(true);
+		CTRNN ctrnn = new CTRNN(s);
+		ctrnn.setConnectivity(connectivity);
+		if (delta)
+			ctrnn.enableDeltaPropagation(0.0, 1000);
+		ctrnn.advance(100);
+		
+		CTRNNPopulation population = new CTRNNPopulation(1, 120);
+		CTRNNSettings stored = randomCircuit(120, newDensity, 15);
+		stored.setCenterCrossing(true);
+		population.load(0, stored);
+		population.store(0, s);
+		
+		CTRNNSettings f = new CTRNNSettings(stored);
+		CTRNN fresh = new CTRNN(f);
+		fresh.setConnectivity(connectivity);
+		ctrnn.advance(200);
+		fresh.advance(200);
+		check("store() into a stepped circuit (" + name + ") matches a fresh circuit", maxDifference(s.states, f.states), 1e-9);
+	}
+	
+	private static void checkDelays() 
+	{
+		CTRNNSettings a = randomCircuit(16, 1.0, 9), b = new CTRNNSettings(a);
+		CTRNN plain = new CTRNN(a), delayed = new CTRNN(b);
+		for (int j = 0; j < 16; j++)
+			delayed.setSynapticDelay(j, 0.0);
+		
+		plain.advance(500);
+		delayed.advance(500);
+		check("zero delays match the undelayed circuit", maxDifference(a.states, b.states), 1e-12);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Edge cases
+	/////////////////////////////////////////////////////////
+	
+	private static void checkCenterCrossing() 
+	{
+		CTRNNSettings s = randomCircuit(20, 1.0, 10);
+		s.setCenterCrossing(true);
+		MersenneTwisterFast rng = new MersenneTwisterFast(100);
+		for (int e = 0; e < 5000; e++)
+			s.setConnectionWeight(rng.nextInt(20), rng.nextInt(20), rng.nextGaussian());
+		s.LesionNeuron(4);
+		
+		double error = 0.0;
+		for (int i = 0; i < 20; i++) 
+		{
+			double sum = 0.0;
+			for (int j = 0; j < 20; j++)
+				sum += s.getConnectionWeight(j, i);
+			error = Math.max(error, Math.abs(s.biases[i] + sum / 2.0));
+		}
+		check("center-crossing biases follow weight edits", error, 1e-9);
+	}
+	
+	private static void checkConvergence() 
+	{
+		CTRNNSettings s = randomCircuit(6, 1.0, 11);
+		CTRNN ctrnn = new CTRNN(s);
+		ctrnn.enableConvergenceDetection(1e-9, 10);
+		ctrnn.advance(200000);
+		check("circuit converges", ctrnn.isConverged() ? 0.0 : 1.0, 0.0);
+		
+		double fixedPoint = s.states[0];
+		s.setNeuronState(0, fixedPoint + 5.0);
+		ctrnn.advance(20000);
+		check("setNeuronState wakes a converged circuit", Math.abs(s.states[0] - fixedPoint), 1e-4);
+		
+		ctrnn.advance(200000);
+		s.states[1] += 5.0;
+		ctrnn.step();
+		check("a direct state write wakes a converged circuit", ctrnn.isConverged() ? 1.0 : 0.0, 0.0);
+		
+		ctrnn.advance(200000);
+		ctrnn.setTransferFunction(CTRNN.TransferFunction.TANH);
+		ctrnn.step();
+		check("a transfer function change wakes a converged circuit", ctrnn.isConverged() ? 1.0 : 0.0, 0.0);
+		
+		// A settled fast neuron and an unconnected slow one that only moves
+		// every 16th base step under multi-rate: not converged until it arrives
+		CTRNNSettings m = new CTRNNSettings(2, 2.0, -2.0, 3.0, 1.0, 2.5, 0.5, 4.0, -4.0);
+		m.setNeuronTimeConstant(0, 0.05);
+		m.setNeuronTimeConstant(1, 3.0);
+		m.setExternalInput(1, 4.0);
+		m.updateOutputs();
+		CTRNN multiRate = new CTRNN(m);
+		multiRate.setIntegrator(CTRNN.Integrator.MULTIRATE_EULER);
+		multiRate.enableConvergenceDetection(1e-3, 5);
+		multiRate.advance(5000);
+		check("multi-rate convergence waits for the slow band", Math.abs(m.states[1] - 4.0), 1e-2);
+	}
+	
+	private static void checkMultiRateReset() 
+	{
+		CTRNNSettings s = randomCircuit(10, 1.0, 12);
+		for (int i = 0; i < 10; i++)
+			s.setNeuronTimeConstant(i, (i % 2 == 0) ? 0.05 : 3.0);
+		
+		CTRNN ctrnn = new CTRNN(s);
+		ctrnn.setIntegrator(CTRNN.Integrator.MULTIRATE_EULER);
+		ctrnn.advance(1001);
+		
+		// neuron 1 is in a slow band, part way through its interval
+		s.setNeuronState(1, 8.0);
+		double set = s.outputs[1];
+		ctrnn.step();
+		check("multi-rate keeps an externally set state", Math.abs(s.outputs[1] - set), 1e-2);
+	}
+	
+	
+	// Saturated and settled neurons repeat values: KSG must not blow up on ties
+	private static void checkMutualInformationTies() 
+	{
+		int samples = 4000;
+		double[] record = new double[samples * 5];
+		MersenneTwisterFast rng = new MersenneTwisterFast(13);
+		for (int s = 0; s < samples; s++) 
+		{
+			double bit = rng.nextBoolean() ? 1.0 : 0.0;
+			// 0 and 1 constant, 2 and 3 independent bits, 4 half copies and half noisy copies of 3
+			record[s * 5] = 0.7;
+			record[s * 5 + 1] = 0.7;
+			record[s * 5 + 2] = rng.nextBoolean() ? 1.0 : 0.0;
+			record[s * 5 + 3] = bit;
+			record[s * 5 + 4] = (s % 2 == 0) ? bit : bit + 0.1 * rng.nextGaussian();
+		}
+		
+		CTRNNInformation info = new CTRNNInformation(5);
+		info.analyze(record, 0, samples);
+		CTRNNInformation.Estimator ksg = CTRNNInformation.Estimator.KSG;
+		
+		check("KSG of two constant neurons is 0", Math.abs(info.getMutualInformation(ksg, 0, 1)), 0.0);
+		check("KSG of a constant and a varying neuron is 0", Math.abs(info.getMutualInformation(ksg, 0, 4)), 0.0);
+		check("KSG of independent binary neurons is near 0", Math.abs(info.getMutualInformation(ksg, 2, 3)), 0.05);
+		check("KSG of a binary neuron and its copy is near ln 2", 
+			Math.abs(info.getMutualInformation(ksg, 3, 4) - Math.log(2.0)), 0.05);
+		
+		// The same bits on saturated neurons, whose range is far below one ulp of their value
+		double[] saturated = new double[samples * 2];
+		for (int s = 0; s < samples; s++) 
+		{
+			saturated[s * 2] = 1.0 - 1e-7 * record[s * 5 + 3];
+			saturated[s * 2 + 1] = 1.0 - 1e-7 * record[s * 5 + 2];
+		}
+		CTRNNInformation near = new CTRNNInformation(2);
+		near.analyze(saturated, 0, samples);
+		check("KSG of independent saturated binary neurons is near 0", Math.abs(near.getMutualInformation(ksg, 0, 1)), 0.05);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Evolution
+	/////////////////////////////////////////////////////////
+	
+	// The generational GA climbs the sphere, and with an elite its
+	// generation best never gets worse
+	private static void checkEvolution() 
+	{
+		CTRNNEvaluator sphere = new CTRNNEvaluator(randomCircuit(2, 1.0, 35), ellipsoid(null, 1.0), 2, 36);
+		CTRNNEvolution evolution = new CTRNNEvolution(sphere, 40, 37);
+		
+		double start = evolution.generation(), previous = start, worse = 0.0;
+		for (int g = 1; g < 200; g++) 
+		{
+			double best = evolution.generation();
+			if (best < previous) worse++;
+			previous = best;
+		}
+		sphere.shutdown();
+		
+		check("the GA's generation best never gets worse with an elite", worse, 0.0);
+		check("the GA climbs the sphere", -evolution.getBestFitness() / -start, 0.01);
+	}
+	
+	// Half the genomes diverge: their NaN fitness must never be elite
+	private static void checkEvolutionNaN() 
+	{
+		CTRNNEvaluator evaluator = new CTRNNEvaluator(randomCircuit(2, 1.0, 16), new CTRNNFitness() 
+		{
+			public double evaluate(CTRNN ctrnn, CTRNNSettings settings, MersenneTwisterFast random) 
+			{
+				return (settings.weights[0] > 0.0) ? Double.NaN : settings.weights[0];
+			}
+		}, 2, 17);
+		CTRNNEvolution evolution = new CTRNNEvolution(evaluator, 20, 18);
+		
+		double nanGenerations = 0.0;
+		for (int g = 0; g < 20; g++)
+			if (Double.isNaN(evolution.generation())) nanGenerations++;
+		evaluator.shutdown();
+		
+		check("a NaN fitness never ranks best", nanGenerations, 0.0);
+		check("the best circuit has a real fitness", (evolution.getBestFitness() <= 0.0) ? 0.0 : 1.0, 0.0);
+	}
+	
+	
+	// The microbial GA climbs the sphere on several threads, and the best
+	// genome it reports scores the best fitness it reports
+	private static void checkMicrobialEvolution() 
+	{
+		CTRNNSettings template = randomCircuit(2, 1.0, 38);
+		CTRNNFitness fitness = ellipsoid(null, 1.0);
+		CTRNNEvaluator sphere = new CTRNNEvaluator(template, fitness, 4, 39);
+		CTRNNMicrobialEvolution microbial = new CTRNNMicrobialEvolution(sphere, 40, 40);
+		
+		double start = microbial.run(40);
+		microbial.run(40000);
+		sphere.shutdown();
+		
+		CTRNNSettings best = new CTRNNSettings(template);
+		microbial.getBestCircuit(best);
+		check("the microbial GA climbs the sphere", -microbial.getBestFitness() / -start, 0.01);
+		check("the microbial GA's best genome scores its best fitness",
+			Math.abs(fitness.evaluate(null, best, null) - microbial.getBestFitness()), 1e-12);
+		check("the microbial GA counts its tournaments", Math.abs(microbial.getTournaments() - 40040), 0.0);
+	}
+	
+	// Noisy adaptive-step evaluations give the same fitnesses on 1 and 4
+	// threads, and when the same genomes are evaluated in another order
+	private static void checkEvaluatorRepeatable() 
+	{
+		CTRNNFitness noisy = new CTRNNFitness() 
+		{
+			public double evaluate(CTRNN ctrnn, CTRNNSettings settings, MersenneTwisterFast random) 
+			{
+				double sum = 0.0;
+				for (int k = 0; k < 20; k++) 
+				{
+					settings.setExternalInput(0, random.nextGaussian());
+					ctrnn.integrateAdaptive(0.5);
+					sum += settings.outputs[1];
+				}
+				return sum;
+			}
+		};
+		
+		CTRNNSettings template = randomCircuit(4, 1.0, 19);
+		MersenneTwisterFast rng = new MersenneTwisterFast(20);
+		double[][] genomes = new double[16][template.getGenomeLength()];
+		int[] forward = new int[16], backward = new int[16];
+		for (int p = 0; p < 16; p++) 
+		{
+			for (int g = 0; g < genomes[p].length; g++)
+				genomes[p][g] = 2.0 * rng.nextDouble() - 1.0;
+			forward[p] = p;
+			backward[p] = 15 - p;
+		}
+		
+		CTRNNEvaluator serial = new CTRNNEvaluator(template, noisy, 1, 21);
+		CTRNNEvaluator parallel = new CTRNNEvaluator(template, noisy, 4, 21);
+		double[] a = new double[16], b = new double[16];
+		serial.evaluate(genomes, a, forward, 16);
+		parallel.evaluate(genomes, b, backward, 16);
+		check("a batch's fitnesses don't depend on threads or order", maxDifference(a, b), 0.0);
+		
+		serial.evaluate(genomes, a, forward, 16);
+		parallel.evaluate(genomes, b, forward, 16);
+		check("later batches repeat too", maxDifference(a, b), 0.0);
+		serial.shutdown();
+		parallel.shutdown();
+	}
+	
+	
+	// CMA-ES: both variants solve the sphere, and the full one learns a
+	// rotated, badly conditioned ellipsoid
+	private static void checkCMAES() 
+	{
+		CTRNNSettings template = randomCircuit(3, 1.0, 22);
+		int length = template.getGenomeLength();
+		double[][] rotation = randomRotation(length, 23);
+		
+		for (int separable = 0; separable < 2; separable++) 
+		{
+			String name = (separable == 1) ? "separable CMA-ES" : "CMA-ES";
+			CTRNNEvaluator sphere = new CTRNNEvaluator(template, ellipsoid(null, 1.0), 2, 24);
+			CTRNNCMAES cma = new CTRNNCMAES(sphere, 0, 0.3, separable == 1, 25);
+			cma.run(300);
+			sphere.shutdown();
+			
+			double[] mean = cma.getMean();
+			double error = 0.0;
+			for (int g = 0; g < length; g++)
+				error = Math.max(error, Math.abs(mean[g] - 0.3));
+			check(name + " finds the sphere's minimum", -cma.getBestFitness(), 1e-10);
+			check(name + " mean converges on the sphere", error, 1e-4);
+		}
+		
+		CTRNNEvaluator rotated = new CTRNNEvaluator(template, ellipsoid(rotation, 1e4), 2, 26);
+		CTRNNCMAES full = new CTRNNCMAES(rotated, 0, 0.3, false, 27);
+		full.run(600);
+		rotated.shutdown();
+		check("CMA-ES solves a rotated ellipsoid", -full.getBestFitness(), 1e-4);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Time series analysis
+	/////////////////////////////////////////////////////////
+	
+	// Streaming error measures against sums over the stored errors. Output 1's
+	// target mean is given, so its RAE is exact; output 0's uses the running
+	// mean and only approaches the two-pass value.
+	private static void checkFitnessMeasures() 
+	{
+		int samples = 5000;
+		int[] neurons = { 2, 0 };
+		CTRNNFitnessMeasures measures = new CTRNNFitnessMeasures(neurons);
+		measures.setTargetMean(1, 0.5);
+		measures.setPrecision(0, 0.02);
+		
+		double[][] target = new double[2][samples], output = new double[2][samples];
+		double[] outputs = new double[3], targets = new double[2];
+		MersenneTwisterFast rng = new MersenneTwisterFast(34);
+		for (int s = 0; s < samples; s++) 
+		{
+			target[0][s] = Math.sin(0.01 * s) + 0.2 * rng.nextGaussian();
+			target[1][s] = 0.5 + 0.3 * Math.sin(2.0 * Math.PI * s / 100.0);
+			for (int k = 0; k < 2; k++) 
+			{
+				output[k][s] = target[k][s] + 0.05 * rng.nextGaussian();
+				outputs[neurons[k]] = output[k][s];
+				targets[k] = target[k][s];
+			}
+			measures.add(outputs, targets);
+		}
+		
+		double error = 0.0, raeError = 0.0, totalSquares = 0.0;
+		for (int k = 0; k < 2; k++) 
+		{
+			double precision = (k == 0) ? 0.02 : 0.01;
+			double mean = 0.0;
+			for (int s = 0; s < samples; s++)
+				mean += target[k][s] / samples;
+			if (k == 1)
+				mean = 0.5;
+			
+			double squares = 0.0, absolutes = 0.0, deviationSquares = 0.0, deviations = 0.0, selection = 0.0;
+			long hits = 0;
+			for (int s = 0; s < samples; s++) 
+			{
+				double e = Math.abs(output[k][s] - target[k][s]);
+				squares += e * e;
+				absolutes += e;
+				deviationSquares += (target[k][s] - mean) * (target[k][s] - mean);
+				deviations += Math.abs(target[k][s] - mean);
+				if (e <= precision) 
+				{
+					hits++;
+					e = 0.0;
+				}
+				selection += Math.max(0.0, 1.0 - e);
+			}
+			totalSquares += squares;
+			
+			error = Math.max(error, Math.abs(measures.getMSE(k) - squares / samples) / (squares / samples));
+			error = Math.max(error, Math.abs(measures.getRMSE(k) - Math.sqrt(squares / samples)) / Math.sqrt(squares / samples));
+			error = Math.max(error, Math.abs(measures.getMAE(k) - absolutes / samples) / (absolutes / samples));
+			error = Math.max(error, Math.abs(measures.getSelectionFitness(k) - selection) / selection);
+			error = Math.max(error, Math.abs(measures.getHits(k) - hits));
+			if (k == 0) 
+			{
+				error = Math.max(error, Math.abs(measures.getRSE(k) - squares / deviationSquares) / (squares / deviationSquares));
+				raeError = Math.abs(measures.getRAE(k) - absolutes / deviations) / (absolutes / deviations);
+			}
+			else
+				error = Math.max(error, Math.abs(measures.getRAE(k) - absolutes / deviations) / (absolutes / deviations));
+		}
+		error = Math.max(error, Math.abs(measures.getMSE() - totalSquares / (2 * samples)) / (totalSquares / (2 * samples)));
+		
+		check("streaming error measures match sums over the errors", error, 1e-9);
+		check("RAE against the running target mean is close", raeError, 0.02);
+	}
+	
+	// Welford/Pebay moments, autocorrelations and trend against two-pass
+	// sums, on a skewed series sitting on a large offset and an AR(1) series
+	private static void checkOnlineStats() 
+	{
+		int samples = 20000, lags = 5;
+		double dt = 0.01;
+		double[] x = new double[samples * 2];
+		MersenneTwisterFast rng = new MersenneTwisterFast(28);
+		for (int s = 0; s < samples; s++) 
+		{
+			x[s * 2] = 1000.0 - Math.log(1.0 - rng.nextDouble()) + 1e-4 * s;
+			x[s * 2 + 1] = ((s > 0) ? 0.8 * x[s * 2 - 1] : 0.0) + rng.nextGaussian();
+		}
+		
+		CTRNNOnlineStats stats = new CTRNNOnlineStats(2, lags);
+		stats.setSampleInterval(dt);
+		double[] sample = new double[2];
+		for (int s = 0; s < samples; s++) 
+		{
+			sample[0] = x[s * 2];
+			sample[1] = x[s * 2 + 1];
+			stats.add(sample);
+		}
+		
+		double momentError = 0.0, correlationError = 0.0, trendError = 0.0;
+		for (int i = 0; i < 2; i++) 
+		{
+			double mean = 0.0;
+			for (int s = 0; s < samples; s++)
+				mean += x[s * 2 + i];
+			mean /= samples;
+			
+			double m2 = 0.0, m3 = 0.0, m4 = 0.0, indexMoment = 0.0, indexM2 = 0.0;
+			for (int s = 0; s < samples; s++) 
+			{
+				double d = x[s * 2 + i] - mean, t = s - (samples - 1) / 2.0;
+				m2 += d * d;
+				m3 += d * d * d;
+				m4 += d * d * d * d;
+				indexMoment += t * d;
+				indexM2 += t * t;
+			}
+			double variance = m2 / samples;
+			double skewness = Math.sqrt((double) samples) * m3 / Math.pow(m2, 1.5);
+			double kurtosis = samples * m4 / (m2 * m2) - 3.0;
+			
+			momentError = Math.max(momentError, Math.abs(stats.getMean(i) - mean) / Math.abs(mean));
+			momentError = Math.max(momentError, Math.abs(stats.getVariance(i) - variance) / variance);
+			momentError = Math.max(momentError, Math.abs(stats.getSkewness(i) - skewness) / Math.max(1.0, Math.abs(skewness)));
+			momentError = Math.max(momentError, Math.abs(stats.getKurtosis(i) - kurtosis) / Math.max(1.0, Math.abs(kurtosis)));
+			trendError = Math.max(trendError, Math.abs(stats.getTrend(i) - indexMoment / indexM2 / dt));
+			
+			for (int l = 0; l < lags; l++) 
+			{
+				int lag = stats.getLag(l), pairs = samples - lag;
+				double lead = 0.0, lagged = 0.0, product = 0.0;
+				for (int s = lag; s < samples; s++) 
+				{
+					lead += x[s * 2 + i] - mean;
+					lagged += x[(s - lag) * 2 + i] - mean;
+					product += (x[s * 2 + i] - mean) * (x[(s - lag) * 2 + i] - mean);
+				}
+				double correlation = (product / pairs - (lead / pairs) * (lagged / pairs)) / variance;
+				correlationError = Math.max(correlationError, Math.abs(stats.getAutocorrelation(i, l) - correlation));
+			}
+		}
+		check("online moments match two-pass moments", momentError, 1e-9);
+		check("online autocorrelations match two-pass", correlationError, 1e-9);
+		check("online trend matches least squares", trendError, 1e-9);
+		check("AR(1) autocorrelation at lag 1 is near 0.8", Math.abs(stats.getAutocorrelation(1, 0) - 0.8), 0.02);
+	}
+	
+	// Welch PSD of 0.5 + 0.8 sin(2 pi 7.3 t): the peak sits at 7.3 Hz, the
+	// spectrum integrates to the sine's power 0.32, and a copy is coherent
+	private static void checkSpectra() 
+	{
+		int samples = 4096;
+		double dt = 0.01;
+		double[] record = new double[samples * 2];
+		for (int s = 0; s < samples; s++) 
+		{
+			record[s * 2] = 0.5 + 0.8 * Math.sin(2.0 * Math.PI * 7.3 * s * dt);
+			record[s * 2 + 1] = -2.0 * record[s * 2];
+		}
+		
+		CTRNNSpectralAnalysis spectra = new CTRNNSpectralAnalysis(2, 256, dt);
+		spectra.analyze(record, 0, samples);
+		
+		double power = 0.0;
+		int peak = 0;
+		for (int k = 0; k < spectra.getBinCount(); k++) 
+		{
+			power += spectra.getPower(0, k) * spectra.getBinFrequency(1);
+			if (spectra.getPower(0, k) > spectra.getPower(0, peak)) peak = k;
+		}
+		double[] coherence = new double[spectra.getBinCount()];
+		spectra.getCoherence(0, 1, coherence);
+		
+		check("Welch PSD of a sine peaks at its frequency", Math.abs(spectra.getDominantFrequency(0) - 7.3), 0.05);
+		check("Welch PSD of a sine integrates to its power", Math.abs(power - 0.32), 1e-6);
+		check("a sine is coherent with its scaled copy", Math.abs(coherence[peak] - 1.0), 1e-9);
+		
+		int[] bad = { 0, 1, 48 };
+		double accepted = 0.0;
+		for (int b = 0; b < bad.length; b++) 
+		{
+			try 
+			{
+				new CTRNNSpectralAnalysis(2, bad[b], dt);
+				accepted++;
+			}
+			catch (IllegalArgumentException e) 
+			{
+			}
+		}
+		check("segment lengths other than powers of two from 2 are refused", accepted, 0.0);
+	}
+	
+	
+	// Uncoupled neurons decay at exactly -1/tau, a self-exciting neuron at
+	// its fixed point's eigenvalue, and Beer's two-neuron oscillator has a zero exponent
+	private static void checkLyapunov() 
+	{
+		CTRNNSettings uncoupled = new CTRNNSettings(3, 2.0, -2.0, 3.0, 1.0, 2.5, 0.5, 4.0, -4.0);
+		double[] taus = { 2.0, 1.0, 0.5 };
+		for (int i = 0; i < 3; i++) 
+		{
+			uncoupled.setNeuronTimeConstant(i, taus[i]);
+			uncoupled.states[i] = i - 1.0;
+		}
+		uncoupled.updateOutputs();
+		CTRNNLyapunov decay = new CTRNNLyapunov(new CTRNN(uncoupled), uncoupled, 3, 29);
+		decay.run(1000);
+		decay.resetAverages();
+		decay.run(2000);
+		double error = 0.0;
+		for (int k = 0; k < 3; k++)
+			error = Math.max(error, Math.abs(decay.getExponent(k) + 1.0 / taus[k]));
+		check("Lyapunov exponents of uncoupled neurons are -1/tau", error, 1e-5);
+		
+		// y' = 2 s(y - 1) - y settles where the slope is 2 s'(y - 1) - 1 < 0
+		CTRNNSettings single = new CTRNNSettings(1, 2.0, -2.0, 3.0, 1.0, 2.5, 0.5, 4.0, -4.0);
+		single.setNeuronTimeConstant(0, 1.0);
+		single.gains[0] = 1.0;
+		single.biases[0] = -1.0;
+		single.setConnectionWeight(0, 0, 2.0);
+		single.updateOutputs();
+		CTRNN ctrnn = new CTRNN(single);
+		ctrnn.advance(5000);
+		CTRNNLyapunov stable = new CTRNNLyapunov(ctrnn, single, 1, 30);
+		stable.run(2000);
+		double out = CTRNN.sigmoid(single.states[0] - 1.0);
+		double slope = 2.0 * out * (1.0 - out) - 1.0;
+		check("Lyapunov exponent of a stable fixed point is its (negative) slope",
+			(slope < 0.0) ? Math.abs(stable.getLargestExponent() - slope) : 1.0, 1e-6);
+		check("a stable fixed point is classified as one",
+			(stable.classify(0.01) == CTRNNLyapunov.Regime.FIXED_POINT) ? 0.0 : 1.0, 0.0);
+		
+		CTRNNSettings beer = new CTRNNSettings(2, 2.0, -2.0, 3.0, 1.0, 2.5, 0.5, 4.0, -4.0);
+		beer.setConnectionWeight(0, 0, 4.5);
+		beer.setConnectionWeight(1, 0, 1.0);
+		beer.setConnectionWeight(0, 1, -1.0);
+		beer.setConnectionWeight(1, 1, 4.5);
+		beer.biases[0] = -2.75;
+		beer.biases[1] = -1.75;
+		for (int i = 0; i < 2; i++) 
+		{
+			beer.gains[i] = 1.0;
+			beer.setNeuronTimeConstant(i, 1.0);
+		}
+		beer.updateOutputs();
+		CTRNN oscillator = new CTRNN(beer);
+		oscillator.advance(5000);
+		CTRNNLyapunov cycle = new CTRNNLyapunov(oscillator, beer, 2, 31);
+		cycle.run(5000);
+		cycle.resetAverages();
+		cycle.run(50000);
+		check("Beer's oscillator has a zero leading exponent", Math.abs(cycle.getLargestExponent()), 0.01);
+		check("Beer's oscillator is classified periodic",
+			(cycle.classify(0.01) == CTRNNLyapunov.Regime.PERIODIC) ? 0.0 : 1.0, 0.0);
+	}
+	
+	
+	// DFA of white noise (alpha 0.5) and its running sum (alpha 1.5), and the
+	// streamed fluctuation at one scale against detrending every window directly
+	private static void checkDFA() 
+	{
+		int samples = 1 << 17, levels = 10;
+		CTRNNDFA dfa = new CTRNNDFA(2, 4, levels);
+		MersenneTwisterFast rng = new MersenneTwisterFast(32);
+		double[] noise = new double[samples], sample = new double[2];
+		double walk = 0.0;
+		for (int s = 0; s < samples; s++) 
+		{
+			noise[s] = 3.0 + rng.nextGaussian();
+			walk += noise[s] - 3.0;
+			sample[0] = noise[s];
+			sample[1] = walk;
+			dfa.add(sample);
+		}
+		check("DFA exponent of white noise is near 0.5", Math.abs(dfa.getExponent(0) - 0.5), 0.05);
+		check("DFA exponent of a random walk is near 1.5", Math.abs(dfa.getExponent(1) - 1.5), 0.05);
+		
+		// F(s)^2 is the mean over whole windows of the profile's squared
+		// residual about its least squares line, divided by s
+		int level = 3, scale = dfa.getScale(level), windows = samples / scale;
+		double[] profile = new double[samples];
+		for (int s = 0; s < samples; s++)
+			profile[s] = ((s > 0) ? profile[s - 1] : 0.0) + noise[s];
+		
+		double sumResiduals = 0.0;
+		for (int w = 0; w < windows; w++) 
+		{
+			double meanT = (scale - 1) / 2.0, meanY = 0.0;
+			for (int t = 0; t < scale; t++)
+				meanY += profile[w * scale + t] / scale;
+			double stt = 0.0, sty = 0.0, syy = 0.0;
+			for (int t = 0; t < scale; t++) 
+			{
+				double dt = t - meanT, dy = profile[w * scale + t] - meanY;
+				stt += dt * dt;
+				sty += dt * dy;
+				syy += dy * dy;
+			}
+			sumResiduals += (syy - sty * sty / stt) / scale;
+		}
+		double fluctuation = Math.sqrt(sumResiduals / windows);
+		check("streamed DFA fluctuation matches direct detrending",
+			Math.abs(dfa.getFluctuation(0, level) - fluctuation) / fluctuation, 1e-9);
+	}
+	
+	// Laminar phases of known lengths between bursts of 3 large changes give
+	// exact counts, and Pareto lengths give a laminar exponent near -2
+	private static void checkIntermittency() 
+	{
+		int[] lengths = { 5, 12, 40, 300 };
+		CTRNNIntermittency known = new CTRNNIntermittency(1);
+		known.setThreshold(0.5);
+		double[] sample = { 0.0 };
+		long laminarTime = 0;
+		
+		known.add(sample);
+		for (int cycle = 0; cycle < 25; cycle++) 
+		{
+			for (int l = 0; l < lengths.length; l++) 
+			{
+				for (int t = 0; t < lengths[l]; t++) 
+				{
+					sample[0] += 0.01;
+					known.add(sample);
+				}
+				for (int t = 0; t < 3; t++) 
+				{
+					sample[0] += (t % 2 == 0) ? 1.0 : -1.0;
+					known.add(sample);
+				}
+				laminarTime += lengths[l];
+			}
+		}
+		known.finish();
+		
+		double error = Math.abs(known.getLaminarPhaseCount(0) - 100) + Math.abs(known.getBurstCount(0) - 100)
+			+ Math.abs(known.getMeanLaminarLength(0) - laminarTime / 100.0) + Math.abs(known.getMaxLaminarLength(0) - 300)
+			+ Math.abs(known.getBurstFraction(0) - 300.0 / (300 + laminarTime));
+		int[] bins = { 2, 3, 5, 8 };
+		for (int b = 0; b < bins.length; b++)
+			error += Math.abs(known.getLaminarHistogram(0, bins[b]) - 25);
+		check("laminar and burst phases of known lengths are counted exactly", error, 1e-12);
+		
+		CTRNNIntermittency pareto = new CTRNNIntermittency(1);
+		pareto.setThreshold(0.5);
+		MersenneTwisterFast rng = new MersenneTwisterFast(33);
+		sample[0] = 0.0;
+		pareto.add(sample);
+		for (int phase = 0; phase < 20000; phase++) 
+		{
+			long length = (long) Math.min(1e6, 1.0 / (1.0 - rng.nextDouble()));
+			for (long t = 0; t < length; t++) 
+			{
+				sample[0] += 0.01;
+				pareto.add(sample);
+			}
+			sample[0] += 1.0;
+			pareto.add(sample);
+		}
+		pareto.finish();
+		check("Pareto laminar lengths give an exponent near -2", Math.abs(pareto.getLaminarExponent(0) + 2.0), 0.05);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Helpers
+	/////////////////////////////////////////////////////////
+	
+	private static void check(String name, double error, double tolerance) 
+	{
+		boolean passed = error <= tolerance;
+		sChecks++;
+		if (!passed)
+			sFailures++;
+		System.out.println((passed ? "ok    " : "FAIL  ") + name + " (" + error + " <= " + tolerance + ")");
+	}
+	
+	// A circuit with about density of its weights non-zero, the same for the same seed
+	private static CTRNNSettings randomCircuit(int n, double density, long seed) 
+	{
+		MersenneTwisterFast rng = new MersenneTwisterFast(seed);
+		CTRNNSettings s = new CTRNNSettings(n, 2.0, -2.0, 3.0, 1.0, 2.5, 0.5, 4.0, -4.0);
+		double scale = 4.0 / Math.sqrt(Math.max(1.0, n * density));
+		
+		for (int i = 0; i < n; i++) 
+		{
+			s.biases[i] = 4.0 * rng.nextDouble() - 2.0;
+			s.gains[i] = 1.0 + 2.0 * rng.nextDouble();
+			s.states[i] = rng.nextGaussian();
+			s.setNeuronTimeConstant(i, 0.5 + 2.0 * rng.nextDouble());
+			s.externalInputs[i] = 0.5 * rng.nextGaussian();
+			
+			for (int j = 0; j < n; j++)
+				if (rng.nextBoolean(density)) s.weights[i * n + j] = scale * rng.nextGaussian();
+		}
+		s.weightsChanged();
+		s.updateOutputs();
+		return s;
+	}
+	
+	// -sum_i conditioning^(i / (length - 1)) (R (genome - 0.3))_i^2, R the identity when null
+	private static CTRNNFitness ellipsoid(final double[][] rotation, final double conditioning) 
+	{
+		return new CTRNNFitness() 
+		{
+			public double evaluate(CTRNN ctrnn, CTRNNSettings settings, MersenneTwisterFast random) 
+			{
+				int length = settings.getGenomeLength();
+				double[] genome = new double[length];
+				settings.getGenome(genome);
+				
+				double sum = 0.0;
+				for (int i = 0; i < length; i++) 
+				{
+					double y = 0.0;
+					if (rotation == null)
+						y = genome[i] - 0.3;
+					else
+						for (int j = 0; j < length; j++) y += rotation[i][j] * (genome[j] - 0.3);
+					sum += Math.pow(conditioning, i / (length - 1.0)) * y * y;
+				}
+				return -sum;
+			}
+		};
+	}
+	
+	// Gram-Schmidt orthonormalized gaussian rows
+	private static double[][] randomRotation(int n, long seed) 
+	{
+		MersenneTwisterFast rng = new MersenneTwisterFast(seed);
+		double[][] r = new double[n][n];
+		for (int i = 0; i < n; i++) 
+		{
+			for (int j = 0; j < n; j++)
+				r[i][j] = rng.nextGaussian();
+			for (int k = 0; k < i; k++) 
+			{
+				double dot = 0.0;
+				for (int j = 0; j < n; j++) dot += r[i][j] * r[k][j];
+				for (int j = 0; j < n; j++) r[i][j] -= dot * r[k][j];
+			}
+			double norm = 0.0;
+			for (int j = 0; j < n; j++) norm += r[i][j] * r[i][j];
+			norm = Math.sqrt(norm);
+			for (int j = 0; j < n; j++) r[i][j] /= norm;
+		}
+		return r;
+	}
+	
+	// Textbook Euler step of the CTRNN equations
+	private static void referenceEuler(CTRNNSettings s, double dt) 
+	{
+		double[] k = derivative(s, s.states);
+		for (int i = 0; i < s.circuitSize; i++)
+			s.states[i] += dt * k[i];
+		s.updateOutputs();
+	}
+	
+	// Textbook RK4 step of the CTRNN equations
+	private static void referenceRK4(CTRNNSettings s, double dt) 
+	{
+		int n = s.circuitSize;
+		double[] y = new double[n];
+		
+		double[] k1 = derivative(s, s.states);
+		for (int i = 0; i < n; i++) y[i] = s.states[i] + 0.5 * dt * k1[i];
+		double[] k2 = derivative(s, y);
+		for (int i = 0; i < n; i++) y[i] = s.states[i] + 0.5 * dt * k2[i];
+		double[] k3 = derivative(s, y);
+		for (int i = 0; i < n; i++) y[i] = s.states[i] + dt * k3[i];
+		double[] k4 = derivative(s, y);
+		
+		for (int i = 0; i < n; i++)
+			s.states[i] += dt * (k1[i] + 2.0 * k2[i] + 2.0 * k3[i] + k4[i]) / 6.0;
+		s.updateOutputs();
+	}
+	
+	// d state_i / dt = (ext_i + sum_j w_ji f(g_j (y_j + b_j)) - y_i) / tau_i
+	private static double[] derivative(CTRNNSettings s, double[] y) 
+	{
+		int n = s.circuitSize;
+		double[] out = new double[n], dydt = new double[n];
+		
+		for (int j = 0; j < n; j++)
+			out[j] = CTRNN.genericTransferFunction(s.getTransferFunction(), s.getTransferAccuracy(), s.gains[j] * (y[j] + s.biases[j]));
+		
+		for (int i = 0; i < n; i++) 
+		{
+			double input = s.externalInputs[i];
+			for (int j = 0; j < n; j++)
+				input += s.getConnectionWeight(j, i) * out[j];
+			dydt[i] = (input - y[i]) / s.taus[i];
+		}
+		return dydt;
+	}
+	
+	private static double maxDifference(double[] a, double[] b) 
+	{
+		return maxDifference(a, b, 0);
+	}
+	
+	// max |a[i] - b[offset + i]|
+	private static double maxDifference(double[] a, double[] b, int offset) 
+	{
+		double max = 0.0;
+		for (int i = 0; i < a.length; i++)
+			max = Math.max(max, Math.abs(a[i] - b[offset + i]));
+		return max;
+	}
+}
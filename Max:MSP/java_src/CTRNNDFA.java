@@ -0,0 +1,229 @@
+//
+//  CTRNNDFA.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.Arrays;
+
+
+// Streaming detrended fluctuation analysis (DFA-1) of every neuron's output,
+// for the "self-similarity" measure of CTRNN_Delay_Fitness_measures.txt.
+//
+// The profile Y(t) = sum (x - x(0)) is cut into non-overlapping windows of
+// minScale * 2^level samples; F(s)^2 is the mean squared residual of a least
+// squares line through Y over each window of size s, and the DFA exponent is
+// the slope of log F(s) against log s. A window's line and residual come from
+// its count, means, and centered (co)moments of (t, Y). Those merge exactly
+// (Chan et al.), so only the smallest windows are built sample by sample and
+// each completed window is merged into the next scale's pending half. A
+// sample costs O(1) amortized, a million-sample run is linear time, and
+// memory is O(levels) per neuron.
+public class CTRNNDFA
+{
+	private static final int STATS = 6;		// n, mean t, mean Y, M2 t, M2 Y, C tY
+	
+	private final int n;					// neurons
+	private final int mMinScale, mLevels;
+	
+	private long mCount;
+	private final double[] mReference;		// first output, keeps the profile small
+	private final double[] mProfile;
+	
+	// Window stats of neuron i, level l at [(i * levels + l) * STATS]
+	private final double[] mActive;			// the smallest scale's window being filled, per neuron
+	private final double[] mPending;		// a completed first half waiting for its second
+	private final boolean[] mHasPending;
+	private final double[] mCarry;			// scratch for merges
+	
+	// Sum over completed windows of residual / size, and their count
+	private final double[] mFluctuationSums;
+	private final long[] mWindows;
+	
+	
+	// Windows of minScale, 2 minScale, .. minScale * 2^(levels - 1) samples
+	public CTRNNDFA(int neurons, int minScale, int levels) 
+	{
+		if (minScale < 3)
+			throw new IllegalArgumentException("minScale must be at least 3: " + minScale);
+		
+		n = neurons;
+		mMinScale = minScale;
+		mLevels = levels;
+		
+		mReference = new double[n];
+		mProfile = new double[n];
+		mActive = new double[n * STATS];
+		mPending = new double[n * levels * STATS];
+		mHasPending = new boolean[n * levels];
+		mCarry = new double[STATS];
+		mFluctuationSums = new double[n * levels];
+		mWindows = new long[n * levels];
+	}
+	
+	// One sample of every neuron, e.g. CTRNNSettings.outputs
+	public void add(double[] outputs) 
+	{
+		long count = mCount++;
+		double t = count;
+		
+		if (count == 0)
+			System.arraycopy(outputs, 0, mReference, 0, n);
+		
+		for (int i = 0; i < n; i++) 
+		{
+			double y = (mProfile[i] += outputs[i] - mReference[i]);
+			
+			// Welford update of the active window
+			int a = i * STATS;
+			double size = ++mActive[a];
+			double dt = t - mActive[a + 1];
+			double dy = y - mActive[a + 2];
+			mActive[a + 1] += dt / size;
+			mActive[a + 2] += dy / size;
+			mActive[a + 3] += dt * (t - mActive[a + 1]);
+			mActive[a + 4] += dy * (y - mActive[a + 2]);
+			mActive[a + 5] += dt * (y - mActive[a + 2]);
+			
+			if (size == mMinScale) 
+			{
+				windowCompleted(i, 0, mActive, a);
+				Arrays.fill(mActive, a, a + STATS, 0.0);
+			}
+		}
+	}
+	
+	// Score a completed window at level, then pair it with its neighbour to
+	// make the next level's window
+	private void windowCompleted(int i, int level, double[] stats, int s) 
+	{
+		System.arraycopy(stats, s, mCarry, 0, STATS);
+		
+		while (true) 
+		{
+			int l = i * mLevels + level;
+			
+			// residual sum of squares about the fitted line
+			double residual = mCarry[4] - ((mCarry[3] > 0.0) ? mCarry[5] * mCarry[5] / mCarry[3] : 0.0);
+			mFluctuationSums[l] += Math.max(residual, 0.0) / mCarry[0];
+			mWindows[l]++;
+			
+			if (level + 1 == mLevels)
+				return;
+			
+			int next = l + 1;
+			int p = next * STATS;
+			if (!mHasPending[next]) 
+			{
+				System.arraycopy(mCarry, 0, mPending, p, STATS);
+				mHasPending[next] = true;
+				return;
+			}
+			
+			merge(mPending, p, mCarry);
+			mHasPending[next] = false;
+			level++;
+		}
+	}
+	
+	// carry = first (at stats[s ..]) followed by carry
+	private static void merge(double[] stats, int s, double[] carry) 
+	{
+		double na = stats[s], nb = carry[0], size = na + nb;
+		double dt = carry[1] - stats[s + 1];
+		double dy = carry[2] - stats[s + 2];
+		double w = na * nb / size;
+		
+		carry[0] = size;
+		carry[1] = stats[s + 1] + dt * nb / size;
+		carry[2] = stats[s + 2] + dy * nb / size;
+		carry[3] = stats[s + 3] + carry[3] + dt * dt * w;
+		carry[4] = stats[s + 4] + carry[4] + dy * dy * w;
+		carry[5] = stats[s + 5] + carry[5] + dt * dy * w;
+	}
+	
+	// Forget every sample
+	public void reset() 
+	{
+		mCount = 0;
+		Arrays.fill(mProfile, 0.0);
+		Arrays.fill(mActive, 0.0);
+		Arrays.fill(mHasPending, false);
+		Arrays.fill(mFluctuationSums, 0.0);
+		Arrays.fill(mWindows, 0);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Results for neuron i
+	/////////////////////////////////////////////////////////
+	
+	public int getScale(int level) 
+	{
+		return mMinScale << level;
+	}
+	
+	// F(s) at the level's scale, NaN before its first window completes
+	public double getFluctuation(int i, int level) 
+	{
+		int l = i * mLevels + level;
+		return (mWindows[l] > 0) ? Math.sqrt(mFluctuationSums[l] / mWindows[l]) : Double.NaN;
+	}
+	
+	public long getWindowCount(int i, int level) 
+	{
+		return mWindows[i * mLevels + level];
+	}
+	
+	// Slope of log F(s) against log s over the levels with at least
+	// minWindows windows: about 0.5 for uncorrelated noise, 1 for 1/f noise,
+	// 1.5 for a random walk. NaN with fewer than two such levels.
+	public double getExponent(int i, int minWindows) 
+	{
+		double sumX = 0.0, sumY = 0.0, sumXX = 0.0, sumXY = 0.0;
+		int points = 0;
+		
+		for (int level = 0; level < mLevels; level++) 
+		{
+			double f = getFluctuation(i, level);
+			if (mWindows[i * mLevels + level] < minWindows || !(f > 0.0))
+				continue;
+			
+			double x = Math.log(getScale(level));
+			double y = Math.log(f);
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+			points++;
+		}
+		
+		if (points < 2)
+			return Double.NaN;
+		return (points * sumXY - sumX * sumY) / (points * sumXX - sumX * sumX);
+	}
+	
+	public double getExponent(int i) 
+	{
+		return getExponent(i, 4);
+	}
+	
+	// Hurst exponent from the DFA exponent: alpha for noise-like outputs
+	// (alpha < 1), alpha - 1 for walk-like ones
+	public double getHurstExponent(int i) 
+	{
+		double alpha = getExponent(i);
+		return (alpha < 1.0) ? alpha : alpha - 1.0;
+	}
+	
+	public long getCount() 
+	{
+		return mCount;
+	}
+	
+	public int getLevelCount() 
+	{
+		return mLevels;
+	}
+}
@@ -0,0 +1,154 @@
+//
+//  CTRNNDelays.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// Per-source transmission delays: every connection out of neuron j sees j's
+// output from delay_j time units ago. The past outputs live in a ring buffer
+// sampled once per timestep, with the samples of one timestep contiguous
+// (neuron j of slot s at [s * circuitSize + j]), so recording a step is one
+// array copy and sources with similar delays read neighbouring memory. Memory
+// is (maxDelay / timestep + 2) * circuitSize values.
+//
+// Values between samples are linearly interpolated, so the Runga Kutta stages
+// at t + dt/2 and t + dt read their delayed inputs at the right time. Delays
+// shorter than one timestep act as one timestep; a delay of 0 is undelayed.
+// Before the circuit has run for a full delay the oldest sample is held.
+public class CTRNNDelays
+{
+	private final int circuitSize;
+	private double[] mDelays;		// per source neuron
+	private double[] mDelayed;		// delayed sources for the current stage
+	
+	// History ring buffer
+	private double[] mHistory;
+	private int mCapacity;			// samples per neuron
+	private int mNewest;			// slot of the newest sample
+	private double mNewestTime;
+	private double mSampleInterval;
+	private boolean mValid = false;
+	
+	
+	public CTRNNDelays(int size) 
+	{
+		circuitSize = size;
+		mDelays = new double[size];
+		mDelayed = new double[size];
+	}
+	
+	public void setDelay(int from, double delay) 
+	{
+		if (delay < 0.0)
+			throw new IllegalArgumentException("delay must not be negative: " + delay);
+		
+		mDelays[from] = delay;
+		
+		// a longer delay may need a bigger buffer
+		if (mValid && requiredCapacity(mSampleInterval) > mCapacity)
+			mValid = false;
+	}
+	
+	public double getDelay(int from) 
+	{
+		return mDelays[from];
+	}
+	
+	public double getMaxDelay() 
+	{
+		double max = 0.0;
+		for (int j = 0; j < circuitSize; j++)
+			max = Math.max(max, mDelays[j]);
+		return max;
+	}
+	
+	// Make sure the newest sample is outputs at time, with samples dt apart.
+	// If the history doesn't line up (first step, new timestep, time or
+	// outputs set by hand) it restarts as a constant history of outputs.
+	public void prepare(double[] outputs, double time, double dt) 
+	{
+		if (mValid && dt == mSampleInterval && time == mNewestTime)
+			return;
+		
+		int capacity = requiredCapacity(dt);
+		if (mHistory == null || mHistory.length < capacity * circuitSize)
+			mHistory = new double[capacity * circuitSize];
+		
+		mCapacity = capacity;
+		for (int s = 0; s < capacity; s++)
+			System.arraycopy(outputs, 0, mHistory, s * circuitSize, circuitSize);
+		
+		mNewest = 0;
+		mNewestTime = time;
+		mSampleInterval = dt;
+		mValid = true;
+	}
+	
+	// Append the outputs at the end of a step
+	public void record(double[] outputs, double time) 
+	{
+		mNewest = (mNewest + 1 == mCapacity) ? 0 : mNewest + 1;
+		System.arraycopy(outputs, 0, mHistory, mNewest * circuitSize, circuitSize);
+		mNewestTime = time;
+	}
+	
+	// The sources a stage at time should feed through the weights: x for
+	// undelayed neurons, the interpolated history for delayed ones
+	public double[] delayedSources(double[] x, double time) 
+	{
+		final int n = circuitSize;
+		final double dt = mSampleInterval;
+		
+		for (int j = 0; j < n; j++) 
+		{
+			double delay = mDelays[j];
+			if (delay == 0.0) 
+			{
+				mDelayed[j] = x[j];
+				continue;
+			}
+			
+			// samples back from the newest
+			double back = (mNewestTime - time + Math.max(delay, dt)) / dt;
+			if (back <= 0.0) 
+			{
+				mDelayed[j] = mHistory[mNewest * n + j];
+				continue;
+			}
+			
+			int k = (int) back;
+			if (k >= mCapacity - 1) 
+			{
+				mDelayed[j] = mHistory[oldestSlot() * n + j];
+				continue;
+			}
+			
+			double frac = back - k;
+			int s0 = mNewest - k;
+			if (s0 < 0) s0 += mCapacity;
+			int s1 = (s0 == 0) ? mCapacity - 1 : s0 - 1;
+			
+			double v0 = mHistory[s0 * n + j];
+			mDelayed[j] = v0 + frac * (mHistory[s1 * n + j] - v0);
+		}
+		return mDelayed;
+	}
+	
+	// Restart the history from the outputs at the next step
+	public void invalidate() 
+	{
+		mValid = false;
+	}
+	
+	private int oldestSlot() 
+	{
+		return (mNewest + 1 == mCapacity) ? 0 : mNewest + 1;
+	}
+	
+	private int requiredCapacity(double dt) 
+	{
+		return (int) Math.ceil(Math.max(getMaxDelay(), dt) / dt) + 2;
+	}
+}
@@ -0,0 +1,174 @@
+//
+//  CTRNNDeltaPropagator.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// Keeps each neuron's synaptic sum up to date incrementally. Instead of
+// recomputing sum_j w_ij * x_j every time, only sources whose value moved by
+// more than epsilon since they were last propagated contribute
+// w_ij * (x_j - last_j). Near equilibrium few outputs move, so an update costs
+// O(moved * N) instead of O(N^2). Skipped changes leave each sum off by at
+// most epsilon * sum_j |w_ij|; a full recompute every refreshInterval updates
+// bounds any round-off drift.
+//
+// prepare() runs serially once per update; apply() is range based so it can
+// run inside a parallel phase.
+public class CTRNNDeltaPropagator
+{
+	private final int circuitSize;
+	private double mEpsilon;
+	private int mRefreshInterval;
+	
+	private double[] mOutgoing;		// weight from j to i at [j * circuitSize + i]
+	private double[] mSums;			// sum_j w_ij * mPropagated[j]
+	private double[] mPropagated;	// source values the sums currently reflect
+	
+	// Pending update
+	private int[] mMovedSources;
+	private double[] mMovedDeltas;
+	private int mMovedCount;
+	private boolean mFullUpdate;
+	private double[] mFullInputs;
+	
+	private int mUpdatesSinceRefresh;
+	private int mWeightsVersion;
+	private boolean mValid = false;
+	
+	
+	public CTRNNDeltaPropagator(int size, double epsilon, int refreshInterval) 
+	{
+		circuitSize = size;
+		mEpsilon = epsilon;
+		mRefreshInterval = refreshInterval;
+		
+		mOutgoing = new double[size * size];
+		mSums = new double[size];
+		mPropagated = new double[size];
+		mMovedSources = new int[size];
+		mMovedDeltas = new double[size];
+	}
+	
+	// Work out which sources of x moved since they were last propagated
+	public void prepare(CTRNNSettings settings, double[] x) 
+	{
+		int n = circuitSize;
+		
+		int version = settings.getWeightsVersion();
+		if (mValid && version != mWeightsVersion && settings.hasWeightEditsSince(mWeightsVersion)) 
+		{
+			// Patch single-weight edits: the sums reflect mPropagated
+			for (int v = mWeightsVersion + 1; v - version <= 0; v++) 
+			{
+				int w = settings.getWeightEditIndex(v);
+				int i = w / n, j = w % n;
+				mOutgoing[j * n + i] = settings.weights[w];
+				mSums[i] += settings.getWeightEditDelta(v) * mPropagated[j];
+			}
+			mWeightsVersion = version;
+		}
+		
+		if (!mValid || version != mWeightsVersion) 
+		{
+			// Transpose into outgoing order so each source's targets are contiguous
+			double[] weights = settings.weights;
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					mOutgoing[j * n + i] = weights[i * n + j];
+			
+			mWeightsVersion = version;
+			mValid = true;
+			mUpdatesSinceRefresh = mRefreshInterval;
+		}
+		
+		if (mUpdatesSinceRefresh >= mRefreshInterval) 
+		{
+			mFullUpdate = true;
+			mFullInputs = x;
+			mUpdatesSinceRefresh = 0;
+			System.arraycopy(x, 0, mPropagated, 0, n);
+			return;
+		}
+		
+		mFullUpdate = false;
+		mMovedCount = 0;
+		mUpdatesSinceRefresh++;
+		
+		for (int j = 0; j < n; j++) 
+		{
+			double delta = x[j] - mPropagated[j];
+			if (delta > mEpsilon || delta < -mEpsilon) 
+			{
+				mMovedSources[mMovedCount] = j;
+				mMovedDeltas[mMovedCount] = delta;
+				mMovedCount++;
+				mPropagated[j] = x[j];
+			}
+		}
+	}
+	
+	// out[i] = ext[i] + synaptic sum of neuron i, for lo <= i < hi
+	public void apply(CTRNNSettings settings, CTRNNKernel kernel, double[] out, int lo, int hi) 
+	{
+		final int n = circuitSize;
+		final double[] ext = settings.externalInputs;
+		
+		if (mFullUpdate) 
+		{
+			for (int i = lo, w = lo * n; i < hi; i++, w += n)
+				mSums[i] = kernel.accumulate(0.0, settings.weights, w, mFullInputs, 0, n);
+		}
+		else 
+		{
+			for (int m = 0; m < mMovedCount; m++) 
+			{
+				final double delta = mMovedDeltas[m];
+				final int base = mMovedSources[m] * n;
+				for (int i = lo; i < hi; i++)
+					mSums[i] += mOutgoing[base + i] * delta;
+			}
+		}
+		
+		for (int i = lo; i < hi; i++)
+			out[i] = ext[i] + mSums[i];
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	// Sources propagated by the last update (all of them after a full recompute)
+	public int getMovedCount() 
+	{
+		return mFullUpdate ? circuitSize : mMovedCount;
+	}
+	
+	public double getEpsilon() 
+	{
+		return mEpsilon;
+	}
+	
+	public void setEpsilon(double epsilon) 
+	{
+		mEpsilon = epsilon;
+	}
+	
+	public int getRefreshInterval() 
+	{
+		return mRefreshInterval;
+	}
+	
+	public void setRefreshInterval(int updates) 
+	{
+		mRefreshInterval = updates;
+	}
+	
+	// Force a full recompute on the next update
+	public void invalidate() 
+	{
+		mValid = false;
+	}
+}
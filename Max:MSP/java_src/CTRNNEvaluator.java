@@ -0,0 +1,224 @@
+//
+//  CTRNNEvaluator.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Evaluates genomes (see CTRNNSettings.getGenome) on all cores. Every thread
+// has a Worker holding its own CTRNNSettings, CTRNN and random number stream,
+// built once from the template and reused for every evaluation, so
+// evaluations share nothing.
+//
+// Each evaluation restarts the worker's circuit, and in a batch the worker's
+// stream is reseeded from (seed, batch, genome index) first, so a batch's
+// fitnesses depend only on the seed and the genomes: not on the thread
+// count, nor on which worker happened to pick up which genome.
+public class CTRNNEvaluator
+{
+	// One evaluation thread's circuit and random numbers
+	public static final class Worker
+	{
+		public final CTRNNSettings settings;
+		public final CTRNN ctrnn;
+		public final MersenneTwisterFast random;
+		private final int[] mKey = new int[4];	// seed of the current batch evaluation
+		
+		Worker(CTRNNSettings template, long seed) 
+		{
+			settings = new CTRNNSettings(template);
+			ctrnn = new CTRNN(settings);
+			random = new MersenneTwisterFast(seed);
+		}
+		
+		// Mersenne Twister only takes 32 bits from a long seed, so key it with the whole tuple
+		void reseed(long seed, long batch, int index) 
+		{
+			mKey[0] = (int) seed;
+			mKey[1] = (int) (seed >>> 32);
+			mKey[2] = (int) batch;
+			mKey[3] = index;
+			random.setSeed(mKey);
+		}
+	}
+	
+	private final CTRNNSettings mTemplate;
+	private final CTRNNFitness mFitness;
+	private final Worker[] mWorkers;
+	private final ExecutorService mExecutor;	// null when single threaded
+	private final long mSeed;
+	private long mBatch = 0;					// batches evaluated so far
+	
+	
+	public CTRNNEvaluator(CTRNNSettings template, CTRNNFitness fitness) 
+	{
+		this(template, fitness, Runtime.getRuntime().availableProcessors(), System.nanoTime());
+	}
+	
+	public CTRNNEvaluator(CTRNNSettings template, CTRNNFitness fitness, int threads, long seed) 
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1: " + threads);
+		
+		mTemplate = new CTRNNSettings(template);
+		mFitness = fitness;
+		
+		// streams for evaluate(Worker, genome) outside batches
+		mSeed = seed;
+		MersenneTwisterFast seeds = new MersenneTwisterFast(seed);
+		mWorkers = new Worker[threads];
+		for (int w = 0; w < threads; w++)
+			mWorkers[w] = new Worker(mTemplate, seeds.nextLong());
+		
+		mExecutor = (threads > 1) ? Executors.newFixedThreadPool(threads, new DaemonThreadFactory()) : null;
+	}
+	
+	// Evaluate one genome on the given worker's circuit. A NaN fitness (a
+	// diverged circuit or measure) comes back as negative infinity, so every
+	// search ranks it last instead of above every number.
+	public double evaluate(Worker worker, double[] genome) 
+	{
+		CTRNNSettings s = worker.settings;
+		int n = s.circuitSize;
+		
+		s.setGenome(genome);
+		System.arraycopy(mTemplate.states, 0, s.states, 0, n);
+		System.arraycopy(mTemplate.externalInputs, 0, s.externalInputs, 0, n);
+		s.updateOutputs();
+		worker.ctrnn.restart();
+		
+		double fitness = mFitness.evaluate(worker.ctrnn, s, worker.random);
+		return Double.isNaN(fitness) ? Double.NEGATIVE_INFINITY : fitness;
+	}
+	
+	// fitness[i] = fitness of genomes[i] for every i in indices[0 .. count),
+	// spread over all workers. Returns when every evaluation has finished.
+	public void evaluate(final double[][] genomes, final double[] fitness, final int[] indices, final int count) 
+	{
+		final long batch = mBatch++;
+		
+		if (mExecutor == null || count < 2) 
+		{
+			for (int k = 0; k < count; k++)
+				fitness[indices[k]] = evaluate(mWorkers[0], genomes, indices[k], batch);
+			return;
+		}
+		
+		// Workers pull the next index as they finish, so uneven costs balance
+		final AtomicInteger next = new AtomicInteger();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(mWorkers.length);
+		
+		for (int w = 0; w < Math.min(mWorkers.length, count); w++) 
+		{
+			final Worker worker = mWorkers[w];
+			tasks.add(new Callable<Void>() 
+			{
+				public Void call() 
+				{
+					for (int k = next.getAndIncrement(); k < count; k = next.getAndIncrement())
+						fitness[indices[k]] = evaluate(worker, genomes, indices[k], batch);
+					return null;
+				}
+			});
+		}
+		runAll(tasks);
+	}
+	
+	private double evaluate(Worker worker, double[][] genomes, int index, long batch) 
+	{
+		worker.reseed(mSeed, batch, index);
+		return evaluate(worker, genomes[index]);
+	}
+	
+	// Run one task per worker concurrently and wait for all of them,
+	// rethrowing the first failure
+	void runAll(List<? extends Callable<Void>> tasks) 
+	{
+		try 
+		{
+			if (mExecutor == null) 
+			{
+				for (Callable<Void> task : tasks)
+					task.call();
+				return;
+			}
+			
+			List<Future<Void>> results = new ArrayList<Future<Void>>(tasks.size());
+			for (Callable<Void> task : tasks)
+				results.add(mExecutor.submit(task));
+			for (Future<Void> result : results)
+				result.get();
+		}
+		catch (InterruptedException e) 
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("evaluation interrupted", e);
+		}
+		catch (ExecutionException e) 
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException("evaluation failed", cause);
+		}
+		catch (RuntimeException e) 
+		{
+			throw e;
+		}
+		catch (Exception e) 
+		{
+			throw new RuntimeException("evaluation failed", e);
+		}
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	public int getThreadCount() 
+	{
+		return mWorkers.length;
+	}
+	
+	public Worker getWorker(int w) 
+	{
+		return mWorkers[w];
+	}
+	
+	public int getGenomeLength() 
+	{
+		return mTemplate.getGenomeLength();
+	}
+	
+	public void shutdown() 
+	{
+		if (mExecutor != null)
+			mExecutor.shutdown();
+	}
+	
+	
+	// Evaluation threads must not keep Max's JVM alive
+	private static final class DaemonThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger mCount = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) 
+		{
+			Thread t = new Thread(r, "CTRNNEvaluator-" + mCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
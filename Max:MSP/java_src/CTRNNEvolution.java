@@ -0,0 +1,248 @@
+//
+//  CTRNNEvolution.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+// Generational genetic algorithm over circuit genomes (see
+// CTRNNSettings.getGenome). Each generation the whole population is evaluated
+// in parallel by a CTRNNEvaluator, the best eliteCount individuals are copied
+// unchanged into the next generation (and not evaluated again), and the rest
+// are bred from tournament-selected parents by uniform crossover and gaussian
+// mutation. Genes stay within [-1, 1].
+public class CTRNNEvolution
+{
+	private final CTRNNEvaluator mEvaluator;
+	private final MersenneTwisterFast mRandom;	// breeding only, evaluations use the workers' streams
+	private final int mPopulationSize;
+	private final int mGenomeLength;
+	
+	// Population, and the next generation being bred
+	private double[][] mGenomes, mNextGenomes;
+	private double[] mFitness, mNextFitness;
+	private boolean[] mEvaluated, mNextEvaluated;
+	private int[] mPending;			// indices still to evaluate
+	private Integer[] mRanking;		// indices sorted by fitness, best first
+	
+	private final Comparator<Integer> mByFitness = new Comparator<Integer>() 
+	{
+		public int compare(Integer a, Integer b) 
+		{
+			return Double.compare(mFitness[b], mFitness[a]);
+		}
+	};
+	
+	// Parameters
+	private int mEliteCount = 1;
+	private int mTournamentSize = 2;
+	private double mCrossoverRate = 0.5;	// chance a child has two parents
+	private double mMutationRate;			// chance each gene is mutated
+	private double mMutationSigma = 0.1;	// standard deviation of a mutation, in genes
+	
+	private int mGeneration = 0;
+	private double mBestFitness = Double.NEGATIVE_INFINITY;
+	private double[] mBestGenome;
+	
+	
+	public CTRNNEvolution(CTRNNEvaluator evaluator, int populationSize, long seed) 
+	{
+		if (populationSize < 2)
+			throw new IllegalArgumentException("population needs at least 2 individuals: " + populationSize);
+		
+		mEvaluator = evaluator;
+		mRandom = new MersenneTwisterFast(seed);
+		mPopulationSize = populationSize;
+		mGenomeLength = evaluator.getGenomeLength();
+		mMutationRate = 1.0 / mGenomeLength;
+		
+		mGenomes = new double[populationSize][mGenomeLength];
+		mNextGenomes = new double[populationSize][mGenomeLength];
+		mFitness = new double[populationSize];
+		mNextFitness = new double[populationSize];
+		mEvaluated = new boolean[populationSize];
+		mNextEvaluated = new boolean[populationSize];
+		mPending = new int[populationSize];
+		mRanking = new Integer[populationSize];
+		mBestGenome = new double[mGenomeLength];
+		
+		randomize();
+	}
+	
+	// Start again from a uniformly random population
+	public void randomize() 
+	{
+		for (int p = 0; p < mPopulationSize; p++) 
+		{
+			for (int g = 0; g < mGenomeLength; g++)
+				mGenomes[p][g] = 2.0 * mRandom.nextDouble() - 1.0;
+			mEvaluated[p] = false;
+		}
+		
+		mGeneration = 0;
+		mBestFitness = Double.NEGATIVE_INFINITY;
+	}
+	
+	// Seed individual p, e.g. with a hand-made circuit's genome
+	public void setIndividual(int p, double[] genome) 
+	{
+		System.arraycopy(genome, 0, mGenomes[p], 0, mGenomeLength);
+		mEvaluated[p] = false;
+	}
+	
+	// Evaluate, select and breed one generation. Returns the best fitness of
+	// the generation just evaluated.
+	public double generation() 
+	{
+		evaluatePopulation();
+		
+		for (int p = 0; p < mPopulationSize; p++)
+			mRanking[p] = p;
+		Arrays.sort(mRanking, mByFitness);
+		
+		int best = mRanking[0];
+		if (mFitness[best] > mBestFitness) 
+		{
+			mBestFitness = mFitness[best];
+			System.arraycopy(mGenomes[best], 0, mBestGenome, 0, mGenomeLength);
+		}
+		double generationBest = mFitness[best];
+		
+		// Elites pass through with their fitness
+		int elites = Math.min(mEliteCount, mPopulationSize);
+		for (int e = 0; e < elites; e++) 
+		{
+			int p = mRanking[e];
+			System.arraycopy(mGenomes[p], 0, mNextGenomes[e], 0, mGenomeLength);
+			mNextFitness[e] = mFitness[p];
+			mNextEvaluated[e] = true;
+		}
+		
+		for (int c = elites; c < mPopulationSize; c++) 
+		{
+			double[] child = mNextGenomes[c];
+			double[] mother = mGenomes[tournament()];
+			
+			if (mRandom.nextDouble() < mCrossoverRate) 
+			{
+				double[] father = mGenomes[tournament()];
+				for (int g = 0; g < mGenomeLength; g++)
+					child[g] = mRandom.nextBoolean() ? mother[g] : father[g];
+			}
+			else
+				System.arraycopy(mother, 0, child, 0, mGenomeLength);
+			
+			mutate(child);
+			mNextEvaluated[c] = false;
+		}
+		
+		double[][] genomes = mGenomes;	mGenomes = mNextGenomes;	mNextGenomes = genomes;
+		double[] fitness = mFitness;	mFitness = mNextFitness;	mNextFitness = fitness;
+		boolean[] evaluated = mEvaluated;	mEvaluated = mNextEvaluated;	mNextEvaluated = evaluated;
+		
+		mGeneration++;
+		return generationBest;
+	}
+	
+	// Run generations generations. Returns the best fitness found so far.
+	public double run(int generations) 
+	{
+		for (int i = 0; i < generations; i++)
+			generation();
+		return mBestFitness;
+	}
+	
+	private void evaluatePopulation() 
+	{
+		int count = 0;
+		for (int p = 0; p < mPopulationSize; p++)
+			if (!mEvaluated[p]) mPending[count++] = p;
+		
+		mEvaluator.evaluate(mGenomes, mFitness, mPending, count);
+		
+		for (int k = 0; k < count; k++)
+			mEvaluated[mPending[k]] = true;
+	}
+	
+	private int tournament() 
+	{
+		int winner = mRandom.nextInt(mPopulationSize);
+		for (int t = 1; t < mTournamentSize; t++) 
+		{
+			int rival = mRandom.nextInt(mPopulationSize);
+			if (mFitness[rival] > mFitness[winner])
+				winner = rival;
+		}
+		return winner;
+	}
+	
+	private void mutate(double[] genome) 
+	{
+		for (int g = 0; g < mGenomeLength; g++) 
+		{
+			if (mRandom.nextDouble() < mMutationRate)
+				genome[g] = Math.max(-1.0, Math.min(1.0, genome[g] + mMutationSigma * mRandom.nextGaussian()));
+		}
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	public int getGeneration() 
+	{
+		return mGeneration;
+	}
+	
+	public double getBestFitness() 
+	{
+		return mBestFitness;
+	}
+	
+	public double[] getBestGenome() 
+	{
+		return mBestGenome.clone();
+	}
+	
+	// Load the best circuit found so far into settings
+	public void getBestCircuit(CTRNNSettings settings) 
+	{
+		settings.setGenome(mBestGenome);
+	}
+	
+	public int getPopulationSize() 
+	{
+		return mPopulationSize;
+	}
+	
+	public void setEliteCount(int elites) 
+	{
+		mEliteCount = elites;
+	}
+	
+	public void setTournamentSize(int size) 
+	{
+		mTournamentSize = Math.max(1, size);
+	}
+	
+	public void setCrossoverRate(double rate) 
+	{
+		mCrossoverRate = rate;
+	}
+	
+	// Chance each gene is mutated, 1 / genome length by default
+	public void setMutationRate(double rate) 
+	{
+		mMutationRate = rate;
+	}
+	
+	public void setMutationSigma(double sigma) 
+	{
+		mMutationSigma = sigma;
+	}
+}
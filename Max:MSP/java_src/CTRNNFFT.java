@@ -0,0 +1,111 @@
+//
+//  CTRNNFFT.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// In-place radix-2 complex FFT of one fixed power-of-two size. The bit
+// reversal permutation and the twiddle factors are computed once when the
+// plan is made, so transforms allocate nothing and call no trig functions.
+public class CTRNNFFT
+{
+	private final int mSize;
+	private final int[] mReverse;		// bit-reversed index of each index
+	private final double[] mCos, mSin;	// cos / sin(2 pi k / size), k < size / 2
+	
+	
+	public CTRNNFFT(int size) 
+	{
+		if (size < 1 || (size & (size - 1)) != 0)
+			throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+		
+		mSize = size;
+		mReverse = new int[size];
+		mCos = new double[Math.max(size / 2, 1)];
+		mSin = new double[Math.max(size / 2, 1)];
+		
+		int bits = Integer.numberOfTrailingZeros(size);
+		for (int i = 0; i < size; i++)
+			mReverse[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+		
+		for (int k = 0; k < size / 2; k++) 
+		{
+			double angle = 2.0 * Math.PI * k / size;
+			mCos[k] = Math.cos(angle);
+			mSin[k] = Math.sin(angle);
+		}
+	}
+	
+	// Forward transform, X[k] = sum_t x[t] exp(-2 pi i k t / size)
+	public void transform(double[] re, double[] im) 
+	{
+		transform(re, im, -1.0);
+	}
+	
+	// Inverse transform, including the 1 / size scaling
+	public void inverse(double[] re, double[] im) 
+	{
+		transform(re, im, 1.0);
+		
+		double scale = 1.0 / mSize;
+		for (int i = 0; i < mSize; i++) 
+		{
+			re[i] *= scale;
+			im[i] *= scale;
+		}
+	}
+	
+	private void transform(double[] re, double[] im, double sign) 
+	{
+		final int n = mSize;
+		
+		for (int i = 0; i < n; i++) 
+		{
+			int j = mReverse[i];
+			if (j > i) 
+			{
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		
+		// Butterflies, span doubling each pass
+		for (int half = 1; half < n; half <<= 1) 
+		{
+			int step = n / (2 * half);
+			for (int start = 0; start < n; start += 2 * half) 
+			{
+				for (int k = 0, t = 0; k < half; k++, t += step) 
+				{
+					double wr = mCos[t];
+					double wi = sign * mSin[t];
+					int a = start + k;
+					int b = a + half;
+					
+					double xr = re[b] * wr - im[b] * wi;
+					double xi = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - xr;
+					im[b] = im[a] - xi;
+					re[a] += xr;
+					im[a] += xi;
+				}
+			}
+		}
+	}
+	
+	public int getSize() 
+	{
+		return mSize;
+	}
+	
+	// Smallest power of two >= n
+	public static int nextPowerOfTwo(int n) 
+	{
+		int size = 1;
+		while (size < n)
+			size <<= 1;
+		return size;
+	}
+}
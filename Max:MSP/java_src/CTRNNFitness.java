@@ -0,0 +1,21 @@
+//
+//  CTRNNFitness.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// Objective function for evolving circuits. Higher is better; NaN is
+// treated as the worst possible fitness.
+//
+// evaluate() is called from several evaluation threads at once, each with its
+// own ctrnn, settings and random, so implementations must not share mutable
+// state between calls. The settings arrive with the candidate's parameters
+// and the template's initial states and external inputs, and the ctrnn
+// restarted at time 0 (see CTRNN.restart). Draw all noise from random, which
+// CTRNNEvaluator seeds per genome, for runs that repeat from their seed.
+public interface CTRNNFitness
+{
+	public double evaluate(CTRNN ctrnn, CTRNNSettings settings, MersenneTwisterFast random);
+}
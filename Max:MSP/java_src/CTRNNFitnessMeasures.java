@@ -0,0 +1,234 @@
+//
+//  CTRNNFitnessMeasures.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.Arrays;
+
+// Streaming error measures between output neurons and target signals, as
+// listed in CTRNN_Delay_Fitness_measures.txt: MSE, RMSE, MAE, RSE, RRSE, RAE,
+// absolute error with selection range, and hits. add() takes one sample of
+// every output at once; nothing about the trajectory is kept, only a few
+// running sums per output, and add() allocates nothing.
+//
+// A sample is a hit when |output - target| <= precision, and hits count as no
+// error towards the selection range fitness, sum(max(0, range - error)), which
+// is highest for the best circuit (Ferreira's gene expression programming).
+//
+// The relative measures divide by the error of always predicting the target
+// mean. For RSE / RRSE that comes exactly from Welford's running variance of
+// the targets. RAE needs sum |target - mean|, which has no exact single pass
+// form: unless the target mean is given with setTargetMean it is measured
+// against the mean of the targets seen so far.
+public class CTRNNFitnessMeasures
+{
+	private final int[] mNeurons;	// output k is neuron mNeurons[k]
+	private final int mOutputs;
+	
+	private long mCount;
+	private final double[] mSumSquaredError, mSumAbsoluteError;
+	
+	// Targets: Welford mean / sum of squared deviations, and absolute deviations
+	private final double[] mTargetMean, mTargetM2, mTargetAbsDeviation;
+	private final double[] mKnownTargetMean;	// NaN when unknown
+	
+	// Selection range and hits
+	private final double[] mSelectionRange, mPrecision;
+	private final double[] mSelectionFitness;
+	private final long[] mHits;
+	
+	
+	// Score the given neurons, output k being neurons[k]
+	public CTRNNFitnessMeasures(int[] neurons) 
+	{
+		mNeurons = neurons.clone();
+		mOutputs = neurons.length;
+		
+		mSumSquaredError = new double[mOutputs];
+		mSumAbsoluteError = new double[mOutputs];
+		mTargetMean = new double[mOutputs];
+		mTargetM2 = new double[mOutputs];
+		mTargetAbsDeviation = new double[mOutputs];
+		mKnownTargetMean = new double[mOutputs];
+		mSelectionRange = new double[mOutputs];
+		mPrecision = new double[mOutputs];
+		mSelectionFitness = new double[mOutputs];
+		mHits = new long[mOutputs];
+		
+		Arrays.fill(mKnownTargetMean, Double.NaN);
+		Arrays.fill(mSelectionRange, 1.0);
+		Arrays.fill(mPrecision, 0.01);
+	}
+	
+	// Score neurons 0 .. outputs - 1
+	public CTRNNFitnessMeasures(int outputs) 
+	{
+		this(firstNeurons(outputs));
+	}
+	
+	// One sample: outputs is the whole circuit's outputs (e.g. CTRNNSettings.outputs),
+	// targets[k] the target of output k
+	public void add(double[] outputs, double[] targets) 
+	{
+		mCount++;
+		
+		for (int k = 0; k < mOutputs; k++) 
+		{
+			double target = targets[k];
+			double error = Math.abs(outputs[mNeurons[k]] - target);
+			
+			mSumSquaredError[k] += error * error;
+			mSumAbsoluteError[k] += error;
+			
+			// Welford update of the target mean & variance
+			double delta = target - mTargetMean[k];
+			mTargetMean[k] += delta / mCount;
+			mTargetM2[k] += delta * (target - mTargetMean[k]);
+			
+			double mean = Double.isNaN(mKnownTargetMean[k]) ? mTargetMean[k] : mKnownTargetMean[k];
+			mTargetAbsDeviation[k] += Math.abs(target - mean);
+			
+			if (error <= mPrecision[k]) 
+			{
+				mHits[k]++;
+				error = 0.0;
+			}
+			mSelectionFitness[k] += Math.max(0.0, mSelectionRange[k] - error);
+		}
+	}
+	
+	// Forget every sample, keeping the settings
+	public void reset() 
+	{
+		mCount = 0;
+		for (int k = 0; k < mOutputs; k++) 
+		{
+			mSumSquaredError[k] = 0.0;
+			mSumAbsoluteError[k] = 0.0;
+			mTargetMean[k] = 0.0;
+			mTargetM2[k] = 0.0;
+			mTargetAbsDeviation[k] = 0.0;
+			mSelectionFitness[k] = 0.0;
+			mHits[k] = 0;
+		}
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Measures of output k
+	/////////////////////////////////////////////////////////
+	
+	public double getMSE(int k) 
+	{
+		return mSumSquaredError[k] / mCount;
+	}
+	
+	public double getRMSE(int k) 
+	{
+		return Math.sqrt(getMSE(k));
+	}
+	
+	public double getMAE(int k) 
+	{
+		return mSumAbsoluteError[k] / mCount;
+	}
+	
+	// Squared error relative to that of predicting the target mean
+	public double getRSE(int k) 
+	{
+		return mSumSquaredError[k] / mTargetM2[k];
+	}
+	
+	public double getRRSE(int k) 
+	{
+		return Math.sqrt(getRSE(k));
+	}
+	
+	// Absolute error relative to that of predicting the target mean
+	public double getRAE(int k) 
+	{
+		return mSumAbsoluteError[k] / mTargetAbsDeviation[k];
+	}
+	
+	public double getSelectionFitness(int k) 
+	{
+		return mSelectionFitness[k];
+	}
+	
+	public long getHits(int k) 
+	{
+		return mHits[k];
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Totals over all outputs
+	/////////////////////////////////////////////////////////
+	
+	public double getMSE() 
+	{
+		double sum = 0.0;
+		for (int k = 0; k < mOutputs; k++)
+			sum += mSumSquaredError[k];
+		return sum / (mCount * mOutputs);
+	}
+	
+	public double getSelectionFitness() 
+	{
+		double sum = 0.0;
+		for (int k = 0; k < mOutputs; k++)
+			sum += mSelectionFitness[k];
+		return sum;
+	}
+	
+	public long getHits() 
+	{
+		long sum = 0;
+		for (int k = 0; k < mOutputs; k++)
+			sum += mHits[k];
+		return sum;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	public long getCount() 
+	{
+		return mCount;
+	}
+	
+	public int getOutputCount() 
+	{
+		return mOutputs;
+	}
+	
+	public void setSelectionRange(int k, double range) 
+	{
+		mSelectionRange[k] = range;
+	}
+	
+	// Largest error that still counts as a hit
+	public void setPrecision(int k, double precision) 
+	{
+		mPrecision[k] = precision;
+	}
+	
+	// Make RAE exact when the target's mean is known in advance; NaN to
+	// go back to the running mean
+	public void setTargetMean(int k, double mean) 
+	{
+		mKnownTargetMean[k] = mean;
+	}
+	
+	private static int[] firstNeurons(int outputs) 
+	{
+		int[] neurons = new int[outputs];
+		for (int k = 0; k < outputs; k++)
+			neurons[k] = k;
+		return neurons;
+	}
+}
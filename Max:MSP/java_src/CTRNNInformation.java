@@ -0,0 +1,508 @@
+//
+//  CTRNNInformation.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+// Interdependence between neurons over a window of outputs, laid out as
+// CTRNN.advance() records them (neuron i of sample s at [offset + s * neurons + i]):
+//  - mutual information from a binned joint histogram;
+//  - mutual information by Kraskov, Stogbauer & Grassberger's k-nearest
+//    neighbour estimator (algorithm 1), with the neighbours found through a
+//    grid of equal-count (rank) cells over the pair's joint space and the
+//    marginal counts by binary search in each neuron's sorted outputs. Saturated or settled neurons
+//    repeat values, and ties make the neighbour distance 0; as the authors
+//    recommend, ties are broken with noise of 1e-10 of each neuron's range,
+//    or of the value where that is larger so the noise survives rounding for
+//    a saturated neuron (from a fixed seed, so results repeat), and a
+//    constant neuron shares no information;
+//  - phase locking value |<exp(i (phase_i - phase_j))>| of the Hilbert phases.
+// Mutual information is in nats. The matrix methods spread the pairs over a
+// ForkJoinPool, each task with its own scratch space.
+public class CTRNNInformation
+{
+	public enum Estimator { BINNED, KSG };
+	
+	private static final int PAIRS_PER_TASK = 4;
+	private static final double JITTER = 1e-10;		// tie-breaking noise, relative to max(range, |value|)
+	private static final long JITTER_SEED = 4357;
+	
+	private final int n;				// neurons
+	private final ForkJoinPool mPool;
+	private int mBins = 16;
+	private int mNeighbours = 4;
+	
+	// Per-analysis data, neuron i at [i * samples + s]
+	private int mSamples;
+	private double[] mSeries;
+	private double[] mJittered, mSorted;	// with tie-breaking noise, for KSG
+	private int[] mRanks;					// rank of each jittered value in mSorted
+	private double[] mMin, mMax;
+	private double[] mDigamma;			// digamma(m) for m = 0 .. samples
+	private double[] mCos, mSin;		// unit phasors of the Hilbert phases
+	private boolean mPhasesValid;
+	
+	
+	public CTRNNInformation(int neurons) 
+	{
+		this(neurons, ForkJoinPool.commonPool());
+	}
+	
+	public CTRNNInformation(int neurons, ForkJoinPool pool) 
+	{
+		n = neurons;
+		mPool = pool;
+		mMin = new double[neurons];
+		mMax = new double[neurons];
+	}
+	
+	// Take samples samples of every neuron
+	public void analyze(double[] record, int offset, int samples) 
+	{
+		if (samples < 2)
+			throw new IllegalArgumentException("need at least 2 samples, got " + samples);
+		
+		if (mSeries == null || mSeries.length < n * samples) 
+		{
+			mSeries = new double[n * samples];
+			mJittered = new double[n * samples];
+			mRanks = new int[n * samples];
+			mSorted = new double[n * samples];
+			mDigamma = new double[samples + 1];
+		}
+		mSamples = samples;
+		MersenneTwisterFast rng = new MersenneTwisterFast(JITTER_SEED);
+		
+		for (int i = 0; i < n; i++) 
+		{
+			int base = i * samples;
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for (int s = 0, r = offset + i; s < samples; s++, r += n) 
+			{
+				double x = record[r];
+				mSeries[base + s] = x;
+				min = Math.min(min, x);
+				max = Math.max(max, x);
+			}
+			mMin[i] = min;
+			mMax[i] = max;
+			
+			double range = max - min;
+			for (int s = 0; s < samples; s++) 
+			{
+				double x = mSeries[base + s];
+				double amplitude = (range > 0.0) ? JITTER * Math.max(range, Math.abs(x)) : 0.0;
+				mJittered[base + s] = x + amplitude * (2.0 * rng.nextDouble() - 1.0);
+			}
+			
+			System.arraycopy(mJittered, base, mSorted, base, samples);
+			Arrays.sort(mSorted, base, base + samples);
+			for (int s = 0; s < samples; s++)
+				mRanks[base + s] = firstAtLeast(mSorted, base, samples, mJittered[base + s], false) - base;
+		}
+		
+		// digamma(1) = -Euler's constant, digamma(m + 1) = digamma(m) + 1 / m
+		mDigamma[0] = Double.NEGATIVE_INFINITY;
+		mDigamma[1] = -0.5772156649015329;
+		for (int m = 1; m < samples; m++)
+			mDigamma[m + 1] = mDigamma[m] + 1.0 / m;
+		
+		mPhasesValid = false;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Pairs
+	/////////////////////////////////////////////////////////
+	
+	public double getMutualInformation(Estimator estimator, int i, int j) 
+	{
+		Scratch scratch = new Scratch();
+		return (estimator == Estimator.KSG) ? ksg(i, j, scratch) : binned(i, j, scratch);
+	}
+	
+	public double getPhaseLockingValue(int i, int j) 
+	{
+		preparePhases();
+		return phaseLocking(i, j);
+	}
+	
+	// Mutual information of every pair into out[i * neurons + j]; the
+	// diagonal is left at 0
+	public void getMutualInformationMatrix(Estimator estimator, double[] out) 
+	{
+		mPool.invoke(new PairTask(this, estimator, out, 0, n * (n - 1) / 2));
+	}
+	
+	// Phase locking value of every pair into out[i * neurons + j], 1 on the diagonal
+	public void getPhaseLockingMatrix(double[] out) 
+	{
+		preparePhases();
+		for (int i = 0; i < n; i++)
+			out[i * n + i] = 1.0;
+		mPool.invoke(new PairTask(this, null, out, 0, n * (n - 1) / 2));
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Estimators
+	/////////////////////////////////////////////////////////
+	
+	// Per-task working space
+	private static final class Scratch
+	{
+		int[] histogram, rowCounts, columnCounts;
+		int[] cellStart, cellPoints, pointCell;
+		double[] best;
+	}
+	
+	private double binned(int i, int j, Scratch scratch) 
+	{
+		final int bins = mBins;
+		final int samples = mSamples;
+		
+		if (scratch.histogram == null || scratch.histogram.length != bins * bins) 
+		{
+			scratch.histogram = new int[bins * bins];
+			scratch.rowCounts = new int[bins];
+			scratch.columnCounts = new int[bins];
+		}
+		int[] joint = scratch.histogram, rows = scratch.rowCounts, columns = scratch.columnCounts;
+		Arrays.fill(joint, 0);
+		Arrays.fill(rows, 0);
+		Arrays.fill(columns, 0);
+		
+		for (int s = 0; s < samples; s++) 
+		{
+			int a = bin(mSeries[i * samples + s], mMin[i], mMax[i], bins);
+			int b = bin(mSeries[j * samples + s], mMin[j], mMax[j], bins);
+			joint[a * bins + b]++;
+			rows[a]++;
+			columns[b]++;
+		}
+		
+		// sum p(a, b) ln(p(a, b) / (p(a) p(b)))
+		double mi = 0.0;
+		for (int a = 0; a < bins; a++) 
+		{
+			for (int b = 0; b < bins; b++) 
+			{
+				int count = joint[a * bins + b];
+				if (count > 0)
+					mi += count * Math.log((double) count * samples / ((double) rows[a] * columns[b]));
+			}
+		}
+		return mi / samples;
+	}
+	
+	private static int bin(double x, double min, double max, int bins) 
+	{
+		if (max <= min)
+			return 0;
+		return Math.min(bins - 1, (int) ((x - min) / (max - min) * bins));
+	}
+	
+	private double ksg(int i, int j, Scratch scratch) 
+	{
+		// a constant neuron shares no information
+		if (mMax[i] <= mMin[i] || mMax[j] <= mMin[j])
+			return 0.0;
+		
+		final int samples = mSamples;
+		final int k = Math.min(mNeighbours, samples - 1);
+		final double[] xs = mJittered, ys = mJittered;
+		final int xBase = i * samples, yBase = j * samples;
+		
+		// Grid of about k points per cell over the joint space, the cell
+		// boundaries at quantiles so repeated (saturated) values spread out
+		int grid = Math.max(1, (int) Math.sqrt((double) samples / k));
+		
+		if (scratch.cellStart == null || scratch.cellStart.length < grid * grid + 1 || scratch.cellPoints.length < samples) 
+		{
+			scratch.cellStart = new int[grid * grid + 1];
+			scratch.cellPoints = new int[samples];
+			scratch.pointCell = new int[samples];
+		}
+		if (scratch.best == null || scratch.best.length < k)
+			scratch.best = new double[k];
+		
+		int[] start = scratch.cellStart, points = scratch.cellPoints, pointCell = scratch.pointCell;
+		double[] best = scratch.best;
+		
+		// Counting sort of the points into cells
+		Arrays.fill(start, 0, grid * grid + 1, 0);
+		for (int s = 0; s < samples; s++) 
+		{
+			int cx = (int) ((long) mRanks[xBase + s] * grid / samples);
+			int cy = (int) ((long) mRanks[yBase + s] * grid / samples);
+			pointCell[s] = cx * grid + cy;
+			start[pointCell[s] + 1]++;
+		}
+		for (int c = 0; c < grid * grid; c++)
+			start[c + 1] += start[c];
+		for (int s = 0; s < samples; s++)
+			points[start[pointCell[s]]++] = s;
+		for (int c = grid * grid; c > 0; c--)
+			start[c] = start[c - 1];
+		start[0] = 0;
+		
+		double sum = 0.0;
+		for (int p = 0; p < samples; p++) 
+		{
+			double x = xs[xBase + p], y = ys[yBase + p];
+			int cx = pointCell[p] / grid, cy = pointCell[p] % grid;
+			Arrays.fill(best, 0, k, Double.POSITIVE_INFINITY);
+			
+			// Grow the searched block of cells one row or column at a time, on
+			// the side whose edge value is nearest, until no unsearched point can
+			// be closer: with repeated values one axis can need a long, thin block
+			int x0 = cx, x1 = cx, y0 = cy, y1 = cy;
+			searchCells(x0, x1, y0, y1, p, x, y, xBase, yBase, grid, start, points, best, k);
+			
+			while (true) 
+			{
+				double left = (x0 > 0) ? x - mSorted[xBase + firstRank(x0, grid, samples) - 1] : Double.POSITIVE_INFINITY;
+				double right = (x1 < grid - 1) ? mSorted[xBase + firstRank(x1 + 1, grid, samples)] - x : Double.POSITIVE_INFINITY;
+				double below = (y0 > 0) ? y - mSorted[yBase + firstRank(y0, grid, samples) - 1] : Double.POSITIVE_INFINITY;
+				double above = (y1 < grid - 1) ? mSorted[yBase + firstRank(y1 + 1, grid, samples)] - y : Double.POSITIVE_INFINITY;
+				double gap = Math.min(Math.min(left, right), Math.min(below, above));
+				
+				if (best[k - 1] <= gap || gap == Double.POSITIVE_INFINITY)
+					break;
+				
+				if (gap == left) 
+					searchCells(--x0, x0, y0, y1, p, x, y, xBase, yBase, grid, start, points, best, k);
+				else if (gap == right) 
+					searchCells(++x1, x1, y0, y1, p, x, y, xBase, yBase, grid, start, points, best, k);
+				else if (gap == below) 
+					searchCells(x0, x1, --y0, y0, p, x, y, xBase, yBase, grid, start, points, best, k);
+				else 
+					searchCells(x0, x1, ++y1, y1, p, x, y, xBase, yBase, grid, start, points, best, k);
+			}
+			
+			double epsilon = best[k - 1];
+			int nx = countWithin(mSorted, xBase, samples, x, epsilon);
+			int ny = countWithin(mSorted, yBase, samples, y, epsilon);
+			sum += mDigamma[nx + 1] + mDigamma[ny + 1];
+		}
+		
+		return mDigamma[k] + mDigamma[samples] - sum / samples;
+	}
+	
+	// Keep the k smallest max-norm distances from point p (at x, y) to the
+	// points of cells gx0 .. gx1 by gy0 .. gy1 in best, sorted
+	private void searchCells(int gx0, int gx1, int gy0, int gy1, int p, double x, double y, int xBase, int yBase, 
+		int grid, int[] start, int[] points, double[] best, int k) 
+	{
+		final double[] values = mJittered;
+		
+		for (int gx = gx0; gx <= gx1; gx++) 
+		{
+			for (int gy = gy0; gy <= gy1; gy++) 
+			{
+				int cell = gx * grid + gy;
+				for (int c = start[cell]; c < start[cell + 1]; c++) 
+				{
+					int q = points[c];
+					if (q == p)
+						continue;
+					
+					double d = Math.max(Math.abs(values[xBase + q] - x), Math.abs(values[yBase + q] - y));
+					if (d < best[k - 1]) 
+					{
+						int m = k - 1;
+						while (m > 0 && best[m - 1] > d) 
+						{
+							best[m] = best[m - 1];
+							m--;
+						}
+						best[m] = d;
+					}
+				}
+			}
+		}
+	}
+	
+	// Lowest rank in grid cell c, cells holding ranks q with q * grid / samples == c
+	private static int firstRank(int c, int grid, int samples) 
+	{
+		return (int) (((long) c * samples + grid - 1) / grid);
+	}
+	
+	// Number of other values strictly within epsilon of x in sorted[base .. base + count)
+	private static int countWithin(double[] sorted, int base, int count, double x, double epsilon) 
+	{
+		int hi = firstAtLeast(sorted, base, count, x + epsilon, false);
+		int lo = firstAtLeast(sorted, base, count, x - epsilon, true);
+		return Math.max(0, hi - lo - 1);
+	}
+	
+	// Index of the first value >= v (or > v when strictly)
+	private static int firstAtLeast(double[] sorted, int base, int count, double v, boolean strictly) 
+	{
+		int lo = base, hi = base + count;
+		while (lo < hi) 
+		{
+			int mid = (lo + hi) >>> 1;
+			if (strictly ? sorted[mid] <= v : sorted[mid] < v)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	private double phaseLocking(int i, int j) 
+	{
+		final int samples = mSamples;
+		double re = 0.0, im = 0.0;
+		for (int s = 0, a = i * samples, b = j * samples; s < samples; s++, a++, b++) 
+		{
+			// exp(i phase_i) * conj(exp(i phase_j))
+			re += mCos[a] * mCos[b] + mSin[a] * mSin[b];
+			im += mSin[a] * mCos[b] - mCos[a] * mSin[b];
+		}
+		return Math.sqrt(re * re + im * im) / samples;
+	}
+	
+	// Hilbert phases of every neuron from the analytic signal: transform,
+	// zero the negative frequencies, double the positive ones, transform back
+	private void preparePhases() 
+	{
+		if (mPhasesValid)
+			return;
+		
+		final int samples = mSamples;
+		if (mCos == null || mCos.length < n * samples) 
+		{
+			mCos = new double[n * samples];
+			mSin = new double[n * samples];
+		}
+		
+		int size = CTRNNFFT.nextPowerOfTwo(samples);
+		CTRNNFFT fft = new CTRNNFFT(size);
+		double[] re = new double[size], im = new double[size];
+		
+		for (int i = 0; i < n; i++) 
+		{
+			int base = i * samples;
+			double mean = 0.0;
+			for (int s = 0; s < samples; s++)
+				mean += mSeries[base + s];
+			mean /= samples;
+			
+			Arrays.fill(re, 0.0);
+			Arrays.fill(im, 0.0);
+			for (int s = 0; s < samples; s++)
+				re[s] = mSeries[base + s] - mean;
+			
+			fft.transform(re, im);
+			for (int f = 1; f < size / 2; f++) 
+			{
+				re[f] *= 2.0;
+				im[f] *= 2.0;
+			}
+			for (int f = size / 2 + 1; f < size; f++) 
+			{
+				re[f] = 0.0;
+				im[f] = 0.0;
+			}
+			fft.inverse(re, im);
+			
+			for (int s = 0; s < samples; s++) 
+			{
+				double magnitude = Math.hypot(re[s], im[s]);
+				mCos[base + s] = (magnitude > 0.0) ? re[s] / magnitude : 1.0;
+				mSin[base + s] = (magnitude > 0.0) ? im[s] / magnitude : 0.0;
+			}
+		}
+		mPhasesValid = true;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	// Bins per neuron for the binned estimator
+	public void setBins(int bins) 
+	{
+		mBins = Math.max(1, bins);
+	}
+	
+	// k of the KSG estimator; small k has less bias, large k less variance
+	public void setNeighbours(int k) 
+	{
+		mNeighbours = Math.max(1, k);
+	}
+	
+	
+	// Computes pairs lo .. hi of the upper triangle, numbered row by row.
+	// A null estimator computes phase locking values.
+	private static final class PairTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final CTRNNInformation mInfo;
+		private final Estimator mEstimator;
+		private final double[] mOut;
+		private final int mLo, mHi;
+		
+		PairTask(CTRNNInformation info, Estimator estimator, double[] out, int lo, int hi) 
+		{
+			mInfo = info;
+			mEstimator = estimator;
+			mOut = out;
+			mLo = lo;
+			mHi = hi;
+		}
+		
+		protected void compute() 
+		{
+			if (mHi - mLo > PAIRS_PER_TASK) 
+			{
+				int mid = (mLo + mHi) >>> 1;
+				invokeAll(new PairTask(mInfo, mEstimator, mOut, mLo, mid), 
+						  new PairTask(mInfo, mEstimator, mOut, mid, mHi));
+				return;
+			}
+			
+			int n = mInfo.n;
+			Scratch scratch = new Scratch();
+			
+			// First pair of the range
+			int i = 0, first = 0;
+			while (first + (n - 1 - i) <= mLo) 
+			{
+				first += n - 1 - i;
+				i++;
+			}
+			int j = i + 1 + (mLo - first);
+			
+			for (int pair = mLo; pair < mHi; pair++) 
+			{
+				double value;
+				if (mEstimator == null)
+					value = mInfo.phaseLocking(i, j);
+				else if (mEstimator == Estimator.KSG)
+					value = mInfo.ksg(i, j, scratch);
+				else
+					value = mInfo.binned(i, j, scratch);
+				
+				mOut[i * n + j] = mOut[j * n + i] = value;
+				
+				if (++j == n) 
+				{
+					i++;
+					j = i + 1;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,258 @@
+//
+//  CTRNNIntermittency.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.Arrays;
+
+
+// Streaming laminar / burst detector for the "intermittency" measure of
+// CTRNN_Delay_Fitness_measures.txt.
+//
+// A neuron is bursting while the size of its output change per sample rises
+// above a threshold, and laminar again once it falls below
+// threshold * exitRatio (the hysteresis keeps noise at the threshold from
+// splitting phases). The threshold is fixed if set, otherwise a multiple of
+// the running RMS output change. Completed laminar phases are counted, summed
+// and put into power-of-two length bins, so a sample costs O(1) and the
+// distribution of laminar lengths (a power law for type-I intermittency) can
+// be read off without storing the trajectory.
+public class CTRNNIntermittency
+{
+	private static final int BINS = 64;		// laminar lengths [2^b, 2^(b+1))
+	
+	private final int n;					// neurons
+	
+	private double mThreshold = 0.0;		// absolute, 0 for adaptive
+	private double mAdaptiveFactor = 2.0;	// adaptive threshold in RMS changes
+	private double mExitRatio = 0.5;
+	
+	private long mCount;
+	private final double[] mLast;
+	private final double[] mSquareSums;		// of output changes, for the RMS
+	
+	private final boolean[] mBursting;
+	private final long[] mRun;				// length of the phase in progress
+	
+	// Completed phases
+	private final long[] mLaminarPhases, mLaminarTime, mMaxLaminar;
+	private final double[] mLaminarSquares;
+	private final long[] mBursts, mBurstTime;
+	private final long[] mHistogram;		// [i * BINS + b]
+	
+	
+	public CTRNNIntermittency(int neurons) 
+	{
+		n = neurons;
+		
+		mLast = new double[n];
+		mSquareSums = new double[n];
+		mBursting = new boolean[n];
+		mRun = new long[n];
+		mLaminarPhases = new long[n];
+		mLaminarTime = new long[n];
+		mMaxLaminar = new long[n];
+		mLaminarSquares = new double[n];
+		mBursts = new long[n];
+		mBurstTime = new long[n];
+		mHistogram = new long[n * BINS];
+	}
+	
+	// One sample of every neuron, e.g. CTRNNSettings.outputs
+	public void add(double[] outputs) 
+	{
+		long count = mCount++;
+		
+		if (count == 0) 
+		{
+			System.arraycopy(outputs, 0, mLast, 0, n);
+			return;
+		}
+		
+		for (int i = 0; i < n; i++) 
+		{
+			double change = Math.abs(outputs[i] - mLast[i]);
+			mLast[i] = outputs[i];
+			mSquareSums[i] += change * change;
+			
+			double threshold = (mThreshold > 0.0) ? mThreshold : mAdaptiveFactor * Math.sqrt(mSquareSums[i] / count);
+			boolean bursting = mBursting[i] ? (change >= threshold * mExitRatio) : (change > threshold);
+			
+			if (bursting != mBursting[i]) 
+			{
+				endPhase(i);
+				mBursting[i] = bursting;
+			}
+			mRun[i]++;
+		}
+	}
+	
+	private void endPhase(int i) 
+	{
+		long run = mRun[i];
+		mRun[i] = 0;
+		if (run == 0)
+			return;
+		
+		if (mBursting[i]) 
+		{
+			mBursts[i]++;
+			mBurstTime[i] += run;
+			return;
+		}
+		
+		mLaminarPhases[i]++;
+		mLaminarTime[i] += run;
+		mLaminarSquares[i] += (double)run * run;
+		mMaxLaminar[i] = Math.max(mMaxLaminar[i], run);
+		mHistogram[i * BINS + 63 - Long.numberOfLeadingZeros(run)]++;
+	}
+	
+	// Close the phases in progress, e.g. at the end of a trajectory
+	public void finish() 
+	{
+		for (int i = 0; i < n; i++)
+			endPhase(i);
+	}
+	
+	// Forget every sample
+	public void reset() 
+	{
+		mCount = 0;
+		Arrays.fill(mSquareSums, 0.0);
+		Arrays.fill(mBursting, false);
+		Arrays.fill(mRun, 0);
+		Arrays.fill(mLaminarPhases, 0);
+		Arrays.fill(mLaminarTime, 0);
+		Arrays.fill(mMaxLaminar, 0);
+		Arrays.fill(mLaminarSquares, 0.0);
+		Arrays.fill(mBursts, 0);
+		Arrays.fill(mBurstTime, 0);
+		Arrays.fill(mHistogram, 0);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Results for neuron i, over completed phases
+	/////////////////////////////////////////////////////////
+	
+	public long getLaminarPhaseCount(int i) 
+	{
+		return mLaminarPhases[i];
+	}
+	
+	public long getBurstCount(int i) 
+	{
+		return mBursts[i];
+	}
+	
+	public double getMeanLaminarLength(int i) 
+	{
+		return (mLaminarPhases[i] > 0) ? (double)mLaminarTime[i] / mLaminarPhases[i] : Double.NaN;
+	}
+	
+	// Standard deviation / mean of the laminar lengths: about 1 for
+	// exponentially distributed (random) lengths, above 1 for heavy-tailed ones
+	public double getLaminarVariation(int i) 
+	{
+		long phases = mLaminarPhases[i];
+		if (phases < 2)
+			return Double.NaN;
+		
+		double mean = (double)mLaminarTime[i] / phases;
+		double variance = (mLaminarSquares[i] - phases * mean * mean) / (phases - 1);
+		return Math.sqrt(Math.max(variance, 0.0)) / mean;
+	}
+	
+	public long getMaxLaminarLength(int i) 
+	{
+		return mMaxLaminar[i];
+	}
+	
+	// Fraction of the samples spent bursting
+	public double getBurstFraction(int i) 
+	{
+		long total = mLaminarTime[i] + mBurstTime[i];
+		return (total > 0) ? (double)mBurstTime[i] / total : Double.NaN;
+	}
+	
+	// Laminar phases with lengths in [2^bin, 2^(bin+1))
+	public long getLaminarHistogram(int i, int bin) 
+	{
+		return mHistogram[i * BINS + bin];
+	}
+	
+	// Slope of log density against log length over the non-empty length bins,
+	// the exponent of a power law laminar length distribution. NaN with fewer
+	// than two non-empty bins.
+	public double getLaminarExponent(int i) 
+	{
+		double sumX = 0.0, sumY = 0.0, sumXX = 0.0, sumXY = 0.0;
+		int points = 0;
+		
+		for (int b = 0; b < BINS; b++) 
+		{
+			long phases = mHistogram[i * BINS + b];
+			if (phases == 0)
+				continue;
+			
+			double width = Math.pow(2.0, b);
+			double x = Math.log(width * 1.5);		// bin center
+			double y = Math.log(phases / width);
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+			points++;
+		}
+		
+		if (points < 2)
+			return Double.NaN;
+		return (points * sumXY - sumX * sumY) / (points * sumXX - sumX * sumX);
+	}
+	
+	public long getCount() 
+	{
+		return mCount;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	// Absolute burst threshold on the output change per sample, 0 for adaptive
+	public void setThreshold(double threshold) 
+	{
+		mThreshold = threshold;
+	}
+	
+	public double getThreshold() 
+	{
+		return mThreshold;
+	}
+	
+	// Adaptive threshold as a multiple of the running RMS output change
+	public void setAdaptiveFactor(double factor) 
+	{
+		mAdaptiveFactor = factor;
+	}
+	
+	public double getAdaptiveFactor() 
+	{
+		return mAdaptiveFactor;
+	}
+	
+	// A burst ends below threshold * ratio
+	public void setExitRatio(double ratio) 
+	{
+		mExitRatio = ratio;
+	}
+	
+	public double getExitRatio() 
+	{
+		return mExitRatio;
+	}
+}
@@ -0,0 +1,109 @@
+//
+//  CTRNNKernel.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// The inner loops shared by the integrators: the synaptic summation and the
+// leaky state derivative. The default kernel is the SIMD one in
+// CTRNNVectorKernel when that class was compiled and the jdk.incubator.vector
+// module is present at runtime (java --add-modules jdk.incubator.vector),
+// otherwise the plain scalar loops below.
+public abstract class CTRNNKernel
+{
+	private static CTRNNKernel sDefault;
+	
+	
+	// Returns acc + sum_j weights[wOff + j] * x[xOff + j] for 0 <= j < n
+	public abstract double accumulate(double acc, double[] weights, int wOff, double[] x, int xOff, int n);
+	
+	// out[i] = ext[i] + sum_j weights[i * n + j] * x[j], for lo <= i < hi
+	public void weightedInputs(double[] weights, double[] x, double[] ext, double[] out, int n, int lo, int hi)
+	{
+		for (int i = lo, w = lo * n; i < hi; i++, w += n)
+			out[i] = accumulate(ext[i], weights, w, x, 0, n);
+	}
+	
+	// k[i] = dt * invTaus[i] * (inputs[i] - states[i]), for lo <= i < hi
+	public void derivative(double dt, double[] invTaus, double[] inputs, double[] states, double[] k, int lo, int hi)
+	{
+		for (int i = lo; i < hi; i++)
+			k[i] = dt * invTaus[i] * (inputs[i] - states[i]);
+	}
+	
+	// out[i] = base[i] + a * k[i], for lo <= i < hi
+	public void axpy(double[] base, double a, double[] k, double[] out, int lo, int hi)
+	{
+		for (int i = lo; i < hi; i++)
+			out[i] = base[i] + a * k[i];
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Single precision (CTRNNFloat)
+	/////////////////////////////////////////////////////////
+	
+	public float accumulate(float acc, float[] weights, int wOff, float[] x, int xOff, int n)
+	{
+		for (int j = 0; j < n; j++)
+			acc += weights[wOff + j] * x[xOff + j];
+		return acc;
+	}
+	
+	public void weightedInputs(float[] weights, float[] x, float[] ext, float[] out, int n, int lo, int hi)
+	{
+		for (int i = lo, w = lo * n; i < hi; i++, w += n)
+			out[i] = accumulate(ext[i], weights, w, x, 0, n);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Backend selection
+	/////////////////////////////////////////////////////////
+	
+	public static CTRNNKernel scalar()
+	{
+		return new Scalar();
+	}
+	
+	// The vector kernel if it can be loaded, the scalar one otherwise.
+	// Setting the system property ctrnn.kernel=scalar forces the scalar kernel.
+	public static synchronized CTRNNKernel getDefault()
+	{
+		if (sDefault == null)
+		{
+			sDefault = new Scalar();
+			
+			if (!"scalar".equals(System.getProperty("ctrnn.kernel")))
+			{
+				try 
+				{
+					sDefault = (CTRNNKernel) Class.forName("CTRNNVectorKernel").getDeclaredConstructor().newInstance();
+				} catch(ReflectiveOperationException e) {
+					// class not compiled: keep the scalar kernel
+				} catch(LinkageError e) {
+					// jdk.incubator.vector module missing: keep the scalar kernel
+				}
+			}
+		}
+		return sDefault;
+	}
+	
+	
+	static final class Scalar extends CTRNNKernel
+	{
+		public double accumulate(double acc, double[] weights, int wOff, double[] x, int xOff, int n)
+		{
+			for (int j = 0; j < n; j++)
+				acc += weights[wOff + j] * x[xOff + j];
+			return acc;
+		}
+		
+		public String toString()
+		{
+			return "scalar";
+		}
+	}
+}
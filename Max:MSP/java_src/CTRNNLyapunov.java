@@ -0,0 +1,235 @@
+//
+//  CTRNNLyapunov.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// Lyapunov exponents of a running circuit, from the variational equations
+// integrated alongside CTRNN.RungaKutta4Step(). With
+//   f_i(y) = (ext_i + sum_j w_ij s(g_j (y_j + b_j)) - y_i) / tau_i
+// the Jacobian is analytic,
+//   J_ij = (w_ij g_j s'(g_j (y_j + b_j)) - delta_ij) / tau_i,
+// so each tangent vector v is advanced by RK4 on v' = J(y(t)) v, taking J at
+// the same stage states (y, y + k1/2, y + k2/2, y + k3) the circuit's own step
+// used. Every renormalizeEvery steps the tangent vectors are
+// re-orthonormalized by Gram-Schmidt and the logs of their stretch factors
+// accumulated; exponent k is the time average of the k-th log.
+//
+// One vector gives the largest exponent; m vectors the m largest. Synaptic
+// delays and the transfer accuracy are not part of the Jacobian.
+public class CTRNNLyapunov
+{
+	public enum Regime { FIXED_POINT, PERIODIC, QUASIPERIODIC, CHAOTIC };
+	
+	private final CTRNN mCTRNN;
+	private final CTRNNSettings mParams;
+	private final int n, m;			// neurons, exponents
+	
+	private final double[][] mTangents;
+	private final double[] mLogSums;
+	private double mElapsed;
+	private int mRenormalizeEvery = 10;
+	private int mStepsSinceRenormalize;
+	
+	// Scratch
+	private final double[] mStart, mStage, mSlopes, mScaled, mProduct, mZeros;
+	private final double[] mSum, mTemp, mK;
+	
+	
+	public CTRNNLyapunov(CTRNN ctrnn, CTRNNSettings settings, int exponents, long seed) 
+	{
+		if (exponents < 1 || exponents > settings.circuitSize)
+			throw new IllegalArgumentException("exponents must be between 1 and " + settings.circuitSize + ": " + exponents);
+		
+		mCTRNN = ctrnn;
+		mParams = settings;
+		n = settings.circuitSize;
+		m = exponents;
+		
+		mTangents = new double[m][n];
+		mLogSums = new double[m];
+		
+		mStart = new double[n];
+		mStage = new double[n];
+		mSlopes = new double[n];
+		mScaled = new double[n];
+		mProduct = new double[n];
+		mZeros = new double[n];
+		mSum = new double[n];
+		mTemp = new double[n];
+		mK = new double[n];
+		
+		// Random orthonormal start
+		MersenneTwisterFast random = new MersenneTwisterFast(seed);
+		for (int k = 0; k < m; k++)
+			for (int i = 0; i < n; i++)
+				mTangents[k][i] = random.nextGaussian();
+		orthonormalize(false);
+	}
+	
+	// One RK4 step of the circuit and of the tangent vectors
+	public void step() 
+	{
+		final CTRNNSettings p = mParams;
+		System.arraycopy(p.states, 0, mStart, 0, n);
+		
+		mCTRNN.RungaKutta4Step();
+		
+		// k1..k4 (already scaled by dt) give the stage states
+		for (int k = 0; k < m; k++) 
+		{
+			double[] v = mTangents[k];
+			
+			tangentStage(mStart, null, 0.0, v, mK);				// K1 at y
+			accumulate(mK, 1.0, true);
+			
+			tangentStage(mStart, p.k1, 0.5, v, mK);				// K2 at y + k1/2
+			accumulate(mK, 2.0, false);
+			
+			tangentStage(mStart, p.k2, 0.5, v, mK);				// K3 at y + k2/2
+			accumulate(mK, 2.0, false);
+			
+			tangentStage(mStart, p.k3, 1.0, v, mK);				// K4 at y + k3
+			accumulate(mK, 1.0, false);
+			
+			for (int i = 0; i < n; i++)
+				v[i] += mSum[i] / 6.0;
+		}
+		
+		mElapsed += mCTRNN.getTimeStep();
+		
+		if (++mStepsSinceRenormalize >= mRenormalizeEvery)
+			orthonormalize(true);
+	}
+	
+	public void run(int steps) 
+	{
+		for (int s = 0; s < steps; s++)
+			step();
+	}
+	
+	// Restart the averages (e.g. after a transient), keeping the tangent directions
+	public void resetAverages() 
+	{
+		orthonormalize(false);
+		for (int k = 0; k < m; k++)
+			mLogSums[k] = 0.0;
+		mElapsed = 0.0;
+	}
+	
+	// Tangent RK4 stages: K = dt * J(y + advance * k) (v + advance * Kprev),
+	// where Kprev is the previous stage, still in mK
+	private void tangentStage(double[] y, double[] k, double advance, double[] v, double[] out) 
+	{
+		final CTRNNSettings p = mParams;
+		final double dt = mCTRNN.getTimeStep();
+		final CTRNN.TransferFunction tf = p.getTransferFunction();
+		
+		for (int i = 0; i < n; i++) 
+		{
+			mStage[i] = (k == null) ? y[i] : y[i] + advance * k[i];
+			mTemp[i] = (k == null) ? v[i] : v[i] + advance * out[i];
+		}
+		
+		// s'_j g_j (v + advance * Kprev)_j, then the weighted sum over j
+		for (int j = 0; j < n; j++) 
+		{
+			double g = p.gains[j];
+			mSlopes[j] = g * CTRNN.transferDerivative(tf, g * (mStage[j] + p.biases[j]));
+			mScaled[j] = mSlopes[j] * mTemp[j];
+		}
+		mCTRNN.getKernel().weightedInputs(p.weights, mScaled, mZeros, mProduct, n, 0, n);
+		
+		for (int i = 0; i < n; i++)
+			out[i] = dt * p.invTaus[i] * (mProduct[i] - mTemp[i]);
+	}
+	
+	private void accumulate(double[] k, double weight, boolean first) 
+	{
+		for (int i = 0; i < n; i++)
+			mSum[i] = first ? weight * k[i] : mSum[i] + weight * k[i];
+	}
+	
+	// Modified Gram-Schmidt, adding log |R_kk| to the sums when record is set
+	private void orthonormalize(boolean record) 
+	{
+		for (int k = 0; k < m; k++) 
+		{
+			double[] v = mTangents[k];
+			for (int l = 0; l < k; l++) 
+			{
+				double[] u = mTangents[l];
+				double dot = 0.0;
+				for (int i = 0; i < n; i++)
+					dot += v[i] * u[i];
+				for (int i = 0; i < n; i++)
+					v[i] -= dot * u[i];
+			}
+			
+			double norm = 0.0;
+			for (int i = 0; i < n; i++)
+				norm += v[i] * v[i];
+			norm = Math.sqrt(norm);
+			
+			if (record)
+				mLogSums[k] += Math.log(norm);
+			for (int i = 0; i < n; i++)
+				v[i] /= norm;
+		}
+		mStepsSinceRenormalize = 0;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Results
+	/////////////////////////////////////////////////////////
+	
+	// The k-th largest exponent, per unit of simulated time
+	public double getExponent(int k) 
+	{
+		return (mElapsed > 0.0) ? mLogSums[k] / mElapsed : 0.0;
+	}
+	
+	public double getLargestExponent() 
+	{
+		return getExponent(0);
+	}
+	
+	// Regime from the leading exponents, treating |exponent| <= tolerance as zero.
+	// Telling a torus from a limit cycle needs at least two exponents.
+	public Regime classify(double tolerance) 
+	{
+		double first = getExponent(0);
+		if (first > tolerance)
+			return Regime.CHAOTIC;
+		if (first < -tolerance)
+			return Regime.FIXED_POINT;
+		if (m > 1 && Math.abs(getExponent(1)) <= tolerance)
+			return Regime.QUASIPERIODIC;
+		return Regime.PERIODIC;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	public int getExponentCount() 
+	{
+		return m;
+	}
+	
+	public double getElapsedTime() 
+	{
+		return mElapsed;
+	}
+	
+	// Steps between renormalizations: more often keeps the tangents from
+	// overflowing or collapsing onto the leading direction, less often is cheaper
+	public void setRenormalizeEvery(int steps) 
+	{
+		mRenormalizeEvery = Math.max(1, steps);
+	}
+}
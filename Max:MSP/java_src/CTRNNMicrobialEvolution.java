@@ -0,0 +1,279 @@
+//
+//  CTRNNMicrobialEvolution.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Steady-state microbial GA (Harvey) over circuit genomes. Every evaluation
+// thread repeatedly picks two individuals from the same deme, evaluates them,
+// and has the winner infect the loser: each of the loser's genes is replaced
+// by the winner's with the recombination rate, then mutated. There are no
+// generations, so a thread never waits for the others and uneven evaluation
+// times cost nothing.
+//
+// Individuals are guarded by striped locks, held only to copy a genome or
+// write one back and never two at a time, so evaluations run unlocked and
+// cannot deadlock. Each individual carries a version that is bumped when it is
+// infected; a fitness is only stored if the individual hasn't changed while it
+// was being evaluated, and is reused until the next infection unless
+// re-evaluation is on (for noisy fitness functions).
+public class CTRNNMicrobialEvolution
+{
+	private static final int STRIPES = 64;
+	
+	private final CTRNNEvaluator mEvaluator;
+	private final int mPopulationSize;
+	private final int mGenomeLength;
+	
+	// Population, individual p guarded by mLocks[p % STRIPES]
+	private final double[][] mGenomes;
+	private final double[] mFitness;
+	private final long[] mVersions;
+	private final boolean[] mEvaluated;
+	private final Object[] mLocks;
+	
+	private final AtomicLong mTournaments = new AtomicLong();
+	
+	// Best individual seen, guarded by mBestLock
+	private final Object mBestLock = new Object();
+	private double mBestFitness = Double.NEGATIVE_INFINITY;
+	private final double[] mBestGenome;
+	
+	// Parameters
+	private int mDemeSize;
+	private double mRecombinationRate = 0.5;
+	private double mMutationRate;
+	private double mMutationSigma = 0.1;
+	private boolean mReevaluate = false;
+	private long mSeed;
+	
+	
+	public CTRNNMicrobialEvolution(CTRNNEvaluator evaluator, int populationSize, long seed) 
+	{
+		if (populationSize < 2)
+			throw new IllegalArgumentException("population needs at least 2 individuals: " + populationSize);
+		
+		mEvaluator = evaluator;
+		mPopulationSize = populationSize;
+		mGenomeLength = evaluator.getGenomeLength();
+		mDemeSize = populationSize;
+		mMutationRate = 1.0 / mGenomeLength;
+		mSeed = seed;
+		
+		mGenomes = new double[populationSize][mGenomeLength];
+		mFitness = new double[populationSize];
+		mVersions = new long[populationSize];
+		mEvaluated = new boolean[populationSize];
+		mBestGenome = new double[mGenomeLength];
+		
+		mLocks = new Object[Math.min(STRIPES, populationSize)];
+		for (int l = 0; l < mLocks.length; l++)
+			mLocks[l] = new Object();
+		
+		randomize();
+	}
+	
+	// Start again from a uniformly random population. Not while running.
+	public void randomize() 
+	{
+		MersenneTwisterFast random = new MersenneTwisterFast(mSeed++);
+		
+		for (int p = 0; p < mPopulationSize; p++) 
+		{
+			for (int g = 0; g < mGenomeLength; g++)
+				mGenomes[p][g] = 2.0 * random.nextDouble() - 1.0;
+			mVersions[p]++;
+			mEvaluated[p] = false;
+		}
+		
+		mTournaments.set(0);
+		mBestFitness = Double.NEGATIVE_INFINITY;
+	}
+	
+	// Seed individual p, e.g. with a hand-made circuit's genome
+	public void setIndividual(int p, double[] genome) 
+	{
+		synchronized (lockFor(p)) 
+		{
+			System.arraycopy(genome, 0, mGenomes[p], 0, mGenomeLength);
+			mVersions[p]++;
+			mEvaluated[p] = false;
+		}
+	}
+	
+	// Run tournaments more tournaments on all evaluation threads. Returns the
+	// best fitness found so far.
+	public double run(long tournaments) 
+	{
+		final long target = mTournaments.get() + tournaments;
+		int threads = mEvaluator.getThreadCount();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(threads);
+		
+		for (int w = 0; w < threads; w++) 
+		{
+			final CTRNNEvaluator.Worker worker = mEvaluator.getWorker(w);
+			tasks.add(new Callable<Void>() 
+			{
+				public Void call() 
+				{
+					double[] a = new double[mGenomeLength];
+					double[] b = new double[mGenomeLength];
+					
+					while (mTournaments.getAndIncrement() < target)
+						tournament(worker, a, b);
+					return null;
+				}
+			});
+		}
+		
+		mEvaluator.runAll(tasks);
+		
+		// the threads overshoot the counter by one each
+		mTournaments.set(target);
+		return getBestFitness();
+	}
+	
+	// One microbial tournament, a and b being the worker's genome buffers
+	private void tournament(CTRNNEvaluator.Worker worker, double[] a, double[] b) 
+	{
+		MersenneTwisterFast random = worker.random;
+		
+		// Two different individuals from one deme (a window of the population ring)
+		int pa = random.nextInt(mPopulationSize);
+		int offset = 1 + random.nextInt(Math.max(1, Math.min(mDemeSize, mPopulationSize) - 1));
+		int pb = (pa + offset) % mPopulationSize;
+		
+		double fa = fitnessOf(worker, pa, a);
+		double fb = fitnessOf(worker, pb, b);
+		
+		int loser = (fa >= fb) ? pb : pa;
+		double[] winner = (fa >= fb) ? a : b;
+		
+		synchronized (lockFor(loser)) 
+		{
+			double[] genome = mGenomes[loser];
+			for (int g = 0; g < mGenomeLength; g++) 
+			{
+				if (random.nextDouble() < mRecombinationRate)
+					genome[g] = winner[g];
+				if (random.nextDouble() < mMutationRate)
+					genome[g] = Math.max(-1.0, Math.min(1.0, genome[g] + mMutationSigma * random.nextGaussian()));
+			}
+			mVersions[loser]++;
+			mEvaluated[loser] = false;
+		}
+	}
+	
+	// Copy individual p into genome and return its fitness, evaluating it
+	// (unlocked) if it has no fitness for its current version
+	private double fitnessOf(CTRNNEvaluator.Worker worker, int p, double[] genome) 
+	{
+		long version;
+		synchronized (lockFor(p)) 
+		{
+			System.arraycopy(mGenomes[p], 0, genome, 0, mGenomeLength);
+			if (mEvaluated[p] && !mReevaluate)
+				return mFitness[p];
+			version = mVersions[p];
+		}
+		
+		double fitness = mEvaluator.evaluate(worker, genome);
+		
+		synchronized (lockFor(p)) 
+		{
+			if (mVersions[p] == version) 
+			{
+				mFitness[p] = fitness;
+				mEvaluated[p] = true;
+			}
+		}
+		
+		synchronized (mBestLock) 
+		{
+			if (fitness > mBestFitness) 
+			{
+				mBestFitness = fitness;
+				System.arraycopy(genome, 0, mBestGenome, 0, mGenomeLength);
+			}
+		}
+		return fitness;
+	}
+	
+	private Object lockFor(int p) 
+	{
+		return mLocks[p % mLocks.length];
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	public long getTournaments() 
+	{
+		return mTournaments.get();
+	}
+	
+	public double getBestFitness() 
+	{
+		synchronized (mBestLock) 
+		{
+			return mBestFitness;
+		}
+	}
+	
+	public double[] getBestGenome() 
+	{
+		synchronized (mBestLock) 
+		{
+			return mBestGenome.clone();
+		}
+	}
+	
+	// Load the best circuit found so far into settings
+	public void getBestCircuit(CTRNNSettings settings) 
+	{
+		settings.setGenome(getBestGenome());
+	}
+	
+	public int getPopulationSize() 
+	{
+		return mPopulationSize;
+	}
+	
+	// Opponents are picked within demeSize places of each other on the
+	// population ring; the whole population by default
+	public void setDemeSize(int demeSize) 
+	{
+		mDemeSize = Math.max(2, demeSize);
+	}
+	
+	public void setRecombinationRate(double rate) 
+	{
+		mRecombinationRate = rate;
+	}
+	
+	// Chance each gene is mutated, 1 / genome length by default
+	public void setMutationRate(double rate) 
+	{
+		mMutationRate = rate;
+	}
+	
+	public void setMutationSigma(double sigma) 
+	{
+		mMutationSigma = sigma;
+	}
+	
+	// Evaluate both individuals in every tournament instead of reusing their fitness
+	public void setReevaluate(boolean reevaluate) 
+	{
+		mReevaluate = reevaluate;
+	}
+}
@@ -0,0 +1,246 @@
+//
+//  CTRNNMultiRate.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// Multi-rate Euler integration. Neurons are put into tau bands: band b steps
+// every 2^b base timesteps with a step of 2^b * dt, where b is the largest band
+// whose step stays within stepFraction * tau. A slow band is stepped at the
+// start of its interval, and for the base steps in between the other bands
+// see its output linearly interpolated between the start and end of the
+// interval. A base step then costs O(N) for the interpolation plus O(N) per
+// neuron actually due, instead of O(N^2).
+//
+// Between a slow band's updates CTRNNSettings.states holds the state it has
+// already been advanced to, while CTRNNSettings.outputs holds the interpolated
+// output at the current time. When states or outputs are set from outside
+// (seen through the settings' state version, or outputs that differ from the
+// ones published) every interval restarts at the current time: the untouched
+// slow states are first wound back to the current time, which is exact for
+// Euler since a state moves linearly across its step.
+class CTRNNMultiRate
+{
+	private final int circuitSize;
+	private double mStepFraction;
+	private int mMaxBand;
+	
+	private int mBands;
+	private int[] mOrder;			// neurons sorted by band
+	private int[] mBandStart;		// band b is mOrder[mBandStart[b] .. mBandStart[b + 1])
+	
+	private double[] mOutStart, mOutEnd;	// outputs at the start & end of each neuron's interval
+	private double[] mOutNow;				// outputs at the current time
+	private double[] mStateStart, mStateEnd;	// states at the start & end of each neuron's interval
+	private long mStepCount;
+	private int mStateVersion;				// settings state version the intervals were started for
+	
+	// what the bands were built for
+	private double[] mBandInvTaus;
+	private double mBandTimeStep = Double.NaN;
+	
+	
+	CTRNNMultiRate(int size, double stepFraction, int maxBand) 
+	{
+		circuitSize = size;
+		mStepFraction = stepFraction;
+		mMaxBand = maxBand;
+		
+		mOrder = new int[size];
+		mBandStart = new int[maxBand + 2];
+		mOutStart = new double[size];
+		mOutEnd = new double[size];
+		mOutNow = new double[size];
+		mStateStart = new double[size];
+		mStateEnd = new double[size];
+		mBandInvTaus = new double[size];
+	}
+	
+	void step(CTRNN ctrnn, CTRNNSettings p, double dt) 
+	{
+		boolean rebuild = bandsChanged(p, dt);
+		if (rebuild || setExternally(p)) 
+		{
+			rewind(p);
+			if (rebuild)
+				buildBands(p, dt);
+			restart(p);
+		}
+		
+		final CTRNN.TransferFunction tf = p.getTransferFunction();
+		final CTRNN.TransferAccuracy accuracy = p.getTransferAccuracy();
+		
+		// Outputs at the current time: a band whose interval starts now uses
+		// the end of its last interval, the others interpolate
+		for (int b = 0; b < mBands; b++) 
+		{
+			int period = 1 << b;
+			int phase = (int) (mStepCount & (period - 1));
+			double f = (double) phase / period;
+			
+			for (int k = mBandStart[b]; k < mBandStart[b + 1]; k++) 
+			{
+				int i = mOrder[k];
+				if (phase == 0) 
+				{
+					mOutStart[i] = mOutEnd[i];
+					mOutNow[i] = mOutEnd[i];
+				}
+				else 
+					mOutNow[i] = mOutStart[i] + f * (mOutEnd[i] - mOutStart[i]);
+			}
+		}
+		
+		// Step the bands whose interval starts now across the whole interval
+		for (int b = 0; b < mBands; b++) 
+		{
+			int period = 1 << b;
+			if ((mStepCount & (period - 1)) != 0) 
+				continue;
+			
+			double h = period * dt;
+			for (int k = mBandStart[b]; k < mBandStart[b + 1]; k++) 
+			{
+				int i = mOrder[k];
+				double input = ctrnn.synapticInput(i, mOutNow);
+				mStateStart[i] = p.states[i];
+				p.states[i] += h * p.invTaus[i] * (input - p.states[i]);
+				mStateEnd[i] = p.states[i];
+				mOutEnd[i] = CTRNN.genericTransferFunction(tf, accuracy, p.gains[i] * (p.states[i] + p.biases[i]));
+			}
+		}
+		
+		mStepCount++;
+		
+		// Publish the outputs at the new time
+		for (int b = 0; b < mBands; b++) 
+		{
+			int period = 1 << b;
+			int phase = (int) (mStepCount & (period - 1));
+			double f = (phase == 0) ? 1.0 : (double) phase / period;
+			
+			for (int k = mBandStart[b]; k < mBandStart[b + 1]; k++) 
+			{
+				int i = mOrder[k];
+				p.outputs[i] = mOutNow[i] = mOutStart[i] + f * (mOutEnd[i] - mOutStart[i]);
+			}
+		}
+	}
+	
+	// Base steps in which every band finishes a whole number of intervals
+	int getCycleLength() 
+	{
+		return 1 << Math.max(0, mBands - 1);
+	}
+	
+	// True between cycles, when no band is part way through an interval
+	boolean isCycleStart() 
+	{
+		return (mStepCount & (getCycleLength() - 1)) == 0;
+	}
+	
+	// True if states or outputs were set since the last step
+	private boolean setExternally(CTRNNSettings p) 
+	{
+		if (p.getStateVersion() != mStateVersion) 
+			return true;
+		for (int i = 0; i < circuitSize; i++)
+			if (p.outputs[i] != mOutNow[i]) return true;
+		return false;
+	}
+	
+	// Wind the slow states that are part way through their interval, and were
+	// not set from outside, back to the current time
+	private void rewind(CTRNNSettings p) 
+	{
+		final CTRNN.TransferFunction tf = p.getTransferFunction();
+		final CTRNN.TransferAccuracy accuracy = p.getTransferAccuracy();
+		
+		for (int b = 1; b < mBands; b++) 
+		{
+			int period = 1 << b;
+			int phase = (int) (mStepCount & (period - 1));
+			if (phase == 0) 
+				continue;
+			
+			double f = (double) phase / period;
+			for (int k = mBandStart[b]; k < mBandStart[b + 1]; k++) 
+			{
+				int i = mOrder[k];
+				if (p.states[i] != mStateEnd[i]) 
+					continue;
+				p.states[i] = mStateStart[i] + f * (mStateEnd[i] - mStateStart[i]);
+				p.outputs[i] = CTRNN.genericTransferFunction(tf, accuracy, p.gains[i] * (p.states[i] + p.biases[i]));
+			}
+		}
+	}
+	
+	// Start every interval from the current states and outputs
+	private void restart(CTRNNSettings p) 
+	{
+		int n = circuitSize;
+		System.arraycopy(p.outputs, 0, mOutEnd, 0, n);
+		System.arraycopy(p.outputs, 0, mOutStart, 0, n);
+		System.arraycopy(p.outputs, 0, mOutNow, 0, n);
+		System.arraycopy(p.states, 0, mStateStart, 0, n);
+		System.arraycopy(p.states, 0, mStateEnd, 0, n);
+		mStateVersion = p.getStateVersion();
+		mStepCount = 0;
+	}
+	
+	private boolean bandsChanged(CTRNNSettings p, double dt) 
+	{
+		if (dt != mBandTimeStep) 
+			return true;
+		for (int i = 0; i < circuitSize; i++)
+			if (p.invTaus[i] != mBandInvTaus[i]) return true;
+		return false;
+	}
+	
+	// Assign bands, restart() then starts the intervals
+	private void buildBands(CTRNNSettings p, double dt) 
+	{
+		int n = circuitSize;
+		int[] band = new int[n];
+		int[] count = new int[mMaxBand + 1];
+		mBands = 1;
+		
+		for (int i = 0; i < n; i++) 
+		{
+			double maxStep = mStepFraction * Math.abs(p.taus[i]);
+			int b = 0;
+			while (b < mMaxBand && (2 << b) * dt <= maxStep) 
+				b++;
+			band[i] = b;
+			count[b]++;
+			mBands = Math.max(mBands, b + 1);
+		}
+		
+		mBandStart[0] = 0;
+		for (int b = 0; b < mBands; b++)
+			mBandStart[b + 1] = mBandStart[b] + count[b];
+		
+		int[] fill = new int[mBands];
+		for (int i = 0; i < n; i++) 
+		{
+			int b = band[i];
+			mOrder[mBandStart[b] + fill[b]++] = i;
+		}
+		
+		System.arraycopy(p.invTaus, 0, mBandInvTaus, 0, n);
+		mBandTimeStep = dt;
+	}
+	
+	// Force the bands to be rebuilt, and the intervals restarted, on the next step
+	void invalidate() 
+	{
+		mBandTimeStep = Double.NaN;
+	}
+	
+	int getBandCount() 
+	{
+		return mBands;
+	}
+}
@@ -0,0 +1,261 @@
+//
+//  CTRNNOnlineStats.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.Arrays;
+
+
+// Running time-series statistics of every neuron's output, from the measures
+// in CTRNN_Delay_Fitness_measures.txt: mean, variance, skewness and kurtosis
+// (Welford's update extended to higher moments, after Pebay), serial
+// correlation at a set of lags, linear trend, and seasonality (the lag of the
+// strongest autocorrelation peak). Call add() with the outputs after each
+// step; nothing else about the trajectory is kept.
+//
+// Memory per neuron is the last maxLag outputs (to pair each sample with its
+// lagged partners) plus three sums per lag. Autocorrelations are computed from
+// outputs shifted by the neuron's first output, so a large constant offset
+// doesn't cancel away the precision of the sums.
+public class CTRNNOnlineStats
+{
+	private final int n;				// neurons
+	private final int[] mLags;			// ascending
+	private final int mMaxLag;
+	
+	private long mCount;
+	
+	// Moments about the mean
+	private final double[] mMean, mM2, mM3, mM4;
+	
+	// Trend: the sample index's mean & spread, and its co-moment with each output
+	private double mIndexMean, mIndexM2;
+	private final double[] mIndexCoMoment;
+	private double mSampleInterval = 1.0;
+	
+	// Lagged pairs, lag l of neuron i at [l * n + i]
+	private final double[] mReference;			// first output, subtracted from everything
+	private final double[] mHistory;			// last mMaxLag shifted outputs, sample s of neuron i at [s * n + i]
+	private int mNewest = -1;
+	private final double[] mSumLead, mSumLagged, mSumProduct;
+	
+	
+	// Autocorrelation at lags 1 .. maxLag
+	public CTRNNOnlineStats(int neurons, int maxLag) 
+	{
+		this(neurons, lagRange(maxLag));
+	}
+	
+	public CTRNNOnlineStats(int neurons, int[] lags) 
+	{
+		n = neurons;
+		mLags = lags.clone();
+		Arrays.sort(mLags);
+		if (mLags.length > 0 && mLags[0] < 1)
+			throw new IllegalArgumentException("lags must be at least 1: " + mLags[0]);
+		mMaxLag = (mLags.length > 0) ? mLags[mLags.length - 1] : 0;
+		
+		mMean = new double[n];
+		mM2 = new double[n];
+		mM3 = new double[n];
+		mM4 = new double[n];
+		mIndexCoMoment = new double[n];
+		
+		mReference = new double[n];
+		mHistory = new double[Math.max(mMaxLag, 1) * n];
+		mSumLead = new double[mLags.length * n];
+		mSumLagged = new double[mLags.length * n];
+		mSumProduct = new double[mLags.length * n];
+	}
+	
+	// One sample of every neuron, e.g. CTRNNSettings.outputs
+	public void add(double[] outputs) 
+	{
+		long count = ++mCount;
+		double index = count - 1;
+		
+		if (count == 1)
+			System.arraycopy(outputs, 0, mReference, 0, n);
+		
+		double indexDelta = index - mIndexMean;
+		mIndexMean += indexDelta / count;
+		mIndexM2 += indexDelta * (index - mIndexMean);
+		
+		for (int i = 0; i < n; i++) 
+		{
+			double x = outputs[i];
+			
+			// Higher-order Welford update
+			double delta = x - mMean[i];
+			double deltaN = delta / count;
+			double deltaN2 = deltaN * deltaN;
+			double term = delta * deltaN * (count - 1);
+			
+			mMean[i] += deltaN;
+			mM4[i] += term * deltaN2 * ((double) count * count - 3.0 * count + 3.0) + 6.0 * deltaN2 * mM2[i] - 4.0 * deltaN * mM3[i];
+			mM3[i] += term * deltaN * (count - 2) - 3.0 * deltaN * mM2[i];
+			mM2[i] += term;
+			
+			mIndexCoMoment[i] += indexDelta * (x - mMean[i]);
+		}
+		
+		if (mMaxLag == 0)
+			return;
+		
+		// Pair this sample with the ones lag samples back
+		for (int l = 0; l < mLags.length; l++) 
+		{
+			int lag = mLags[l];
+			if (count <= lag)
+				break;
+			
+			int slot = mNewest - (lag - 1);
+			if (slot < 0) slot += mMaxLag;
+			int h = slot * n;
+			int s = l * n;
+			
+			for (int i = 0; i < n; i++) 
+			{
+				double lead = outputs[i] - mReference[i];
+				double lagged = mHistory[h + i];
+				mSumLead[s + i] += lead;
+				mSumLagged[s + i] += lagged;
+				mSumProduct[s + i] += lead * lagged;
+			}
+		}
+		
+		mNewest = (mNewest + 1 == mMaxLag) ? 0 : mNewest + 1;
+		for (int i = 0, h = mNewest * n; i < n; i++)
+			mHistory[h + i] = outputs[i] - mReference[i];
+	}
+	
+	// Forget every sample, keeping the lags and sample interval
+	public void reset() 
+	{
+		mCount = 0;
+		mNewest = -1;
+		mIndexMean = 0.0;
+		mIndexM2 = 0.0;
+		Arrays.fill(mMean, 0.0);
+		Arrays.fill(mM2, 0.0);
+		Arrays.fill(mM3, 0.0);
+		Arrays.fill(mM4, 0.0);
+		Arrays.fill(mIndexCoMoment, 0.0);
+		Arrays.fill(mSumLead, 0.0);
+		Arrays.fill(mSumLagged, 0.0);
+		Arrays.fill(mSumProduct, 0.0);
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Statistics of neuron i
+	/////////////////////////////////////////////////////////
+	
+	public double getMean(int i) 
+	{
+		return mMean[i];
+	}
+	
+	public double getVariance(int i) 
+	{
+		return mM2[i] / mCount;
+	}
+	
+	public double getStandardDeviation(int i) 
+	{
+		return Math.sqrt(getVariance(i));
+	}
+	
+	public double getSkewness(int i) 
+	{
+		return Math.sqrt((double) mCount) * mM3[i] / Math.pow(mM2[i], 1.5);
+	}
+	
+	// Excess kurtosis, 0 for a normal distribution
+	public double getKurtosis(int i) 
+	{
+		return mCount * mM4[i] / (mM2[i] * mM2[i]) - 3.0;
+	}
+	
+	// Slope of the least squares line through the outputs, per unit of time
+	public double getTrend(int i) 
+	{
+		return mIndexCoMoment[i] / mIndexM2 / mSampleInterval;
+	}
+	
+	// Autocorrelation at the l-th lag (see getLag), NaN until there are lagged pairs
+	public double getAutocorrelation(int i, int l) 
+	{
+		long pairs = mCount - mLags[l];
+		if (pairs <= 0)
+			return Double.NaN;
+		
+		int s = l * n + i;
+		double lead = mSumLead[s] / pairs;
+		double lagged = mSumLagged[s] / pairs;
+		double covariance = mSumProduct[s] / pairs - lead * lagged;
+		return covariance / getVariance(i);
+	}
+	
+	// Seasonal period in samples: past the initial decay of the
+	// autocorrelation, the lag where it is highest. 0 if it never recovers.
+	public int getSeasonalLag(int i) 
+	{
+		int l = 1;
+		while (l < mLags.length && getAutocorrelation(i, l) <= getAutocorrelation(i, l - 1))
+			l++;
+		
+		int best = -1;
+		for (; l < mLags.length; l++) 
+		{
+			if (best < 0 || getAutocorrelation(i, l) > getAutocorrelation(i, best))
+				best = l;
+		}
+		return (best < 0) ? 0 : mLags[best];
+	}
+	
+	// Autocorrelation at the seasonal lag, 0 without one
+	public double getSeasonalStrength(int i) 
+	{
+		int lag = getSeasonalLag(i);
+		if (lag == 0)
+			return 0.0;
+		return getAutocorrelation(i, Arrays.binarySearch(mLags, lag));
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	public long getCount() 
+	{
+		return mCount;
+	}
+	
+	public int getLagCount() 
+	{
+		return mLags.length;
+	}
+	
+	public int getLag(int l) 
+	{
+		return mLags[l];
+	}
+	
+	// Time between samples, to express the trend per unit of simulated time
+	public void setSampleInterval(double interval) 
+	{
+		mSampleInterval = interval;
+	}
+	
+	private static int[] lagRange(int maxLag) 
+	{
+		int[] lags = new int[Math.max(maxLag, 0)];
+		for (int l = 0; l < lags.length; l++)
+			lags[l] = l + 1;
+		return lags;
+	}
+}
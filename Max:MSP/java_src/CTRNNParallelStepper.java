@@ -0,0 +1,104 @@
+//
+//  CTRNNParallelStepper.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+// Splits the integration phases of one large circuit across a ForkJoinPool.
+// Every phase is forked over contiguous neuron ranges and joined before the
+// next phase starts, which is the barrier between the Euler state and output
+// updates and between the four Runga Kutta stages. Circuits smaller than the
+// threshold step serially so they don't pay for the synchronization.
+public class CTRNNParallelStepper
+{
+	public static final int DEFAULT_THRESHOLD = 256;	// neurons
+	public static final int MIN_GRAIN = 32;				// neurons per task
+	
+	private final ForkJoinPool mPool;
+	private int mThreshold = DEFAULT_THRESHOLD;
+	
+	
+	public CTRNNParallelStepper() 
+	{
+		this(new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+	}
+	
+	public CTRNNParallelStepper(ForkJoinPool pool) 
+	{
+		mPool = pool;
+	}
+	
+	boolean isParallel(int circuitSize) 
+	{
+		return circuitSize >= mThreshold && mPool.getParallelism() > 1;
+	}
+	
+	void run(CTRNN ctrnn, int phase, int circuitSize) 
+	{
+		// a few tasks per worker so uneven ranges (sparse rows) still balance
+		int grain = Math.max(MIN_GRAIN, circuitSize / (4 * mPool.getParallelism()));
+		mPool.invoke(new PhaseTask(ctrnn, phase, 0, circuitSize, grain));
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	public int getThreshold() 
+	{
+		return mThreshold;
+	}
+	
+	// Circuits with fewer neurons than this step serially
+	public void setThreshold(int neurons) 
+	{
+		mThreshold = neurons;
+	}
+	
+	public ForkJoinPool getPool() 
+	{
+		return mPool;
+	}
+	
+	public void shutdown() 
+	{
+		mPool.shutdown();
+	}
+	
+	
+	private static final class PhaseTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final CTRNN mCTRNN;
+		private final int mPhase, mLo, mHi, mGrain;
+		
+		PhaseTask(CTRNN ctrnn, int phase, int lo, int hi, int grain) 
+		{
+			mCTRNN = ctrnn;
+			mPhase = phase;
+			mLo = lo;
+			mHi = hi;
+			mGrain = grain;
+		}
+		
+		protected void compute() 
+		{
+			if (mHi - mLo <= mGrain) 
+			{
+				mCTRNN.runPhase(mPhase, mLo, mHi);
+				return;
+			}
+			
+			int mid = (mLo + mHi) >>> 1;
+			invokeAll(new PhaseTask(mCTRNN, mPhase, mLo, mid, mGrain), 
+					  new PhaseTask(mCTRNN, mPhase, mid, mHi, mGrain));
+		}
+	}
+}
@@ -0,0 +1,251 @@
+//
+//  CTRNNPopulation.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// A batch of same-size circuits stored structure-of-arrays style, so that a
+// whole evolutionary population can be advanced with one Euler or RK4 call.
+//
+// Per-neuron variables are packed circuit after circuit: neuron i of circuit c
+// lives at [c * circuitSize + i]. Weights are packed per circuit with the
+// incoming weights of each neuron contiguous: the weight from neuron j to
+// neuron i of circuit c lives at [c * circuitSize * circuitSize + i * circuitSize + j].
+public class CTRNNPopulation
+{
+	public int populationSize;
+	public int circuitSize;
+
+	// Packed circuit variables
+	public double[] biases, gains, outputs, states, taus, invTaus, externalInputs;
+	public double[] weights;
+
+	// Runga Kutta variables
+	private double[] TempStates, TempOutputs, kSum;
+
+	private double mTimeStep = 0.01;	// default timestep
+	private CTRNNKernel mKernel = CTRNNKernel.getDefault();	// synaptic summation backend
+
+	// Transfer function shared by every circuit in the population
+	private CTRNN.TransferFunction mTransferFunction = CTRNN.TransferFunction.LOGSIG;
+	private CTRNN.TransferAccuracy mTransferAccuracy = CTRNN.TransferAccuracy.EXACT;
+
+
+	public CTRNNPopulation(int population, int size)
+	{
+		populationSize = population;
+		circuitSize = size;
+
+		int neurons = populationSize * circuitSize;
+
+		// Allocate
+		biases = new double[neurons];
+		gains = new double[neurons];
+		outputs = new double[neurons];
+		states = new double[neurons];
+		taus = new double[neurons];
+		invTaus = new double[neurons];
+		externalInputs = new double[neurons];
+		weights = new double[neurons * circuitSize];
+
+		// Allocate Runga Kutta variables
+		TempStates = new double[neurons];
+		TempOutputs = new double[neurons];
+		kSum = new double[neurons];
+	}
+
+
+	/////////////////////////////////////////////////////////
+	// Loading & storing individual circuits
+	/////////////////////////////////////////////////////////
+
+	// Copy a circuit into slot c of the population
+	public void load(int c, CTRNNSettings settings)
+	{
+		if (settings.circuitSize != circuitSize)
+			throw new IllegalArgumentException("circuit size " + settings.circuitSize + " != population circuit size " + circuitSize);
+
+		int base = c * circuitSize;
+		int wBase = base * circuitSize;
+
+		for (int i = 0; i < circuitSize; i++)
+		{
+			biases[base + i] = settings.biases[i];
+			gains[base + i] = settings.gains[i];
+			outputs[base + i] = settings.outputs[i];
+			states[base + i] = settings.states[i];
+			taus[base + i] = settings.taus[i];
+			invTaus[base + i] = settings.invTaus[i];
+			externalInputs[base + i] = settings.externalInputs[i];
+		}
+
+		// Settings already keep incoming weights contiguous
+		System.arraycopy(settings.weights, 0, weights, wBase, circuitSize * circuitSize);
+	}
+
+	// Copy the state of slot c back into a circuit
+	public void store(int c, CTRNNSettings settings)
+	{
+		if (settings.circuitSize != circuitSize)
+			throw new IllegalArgumentException("circuit size " + settings.circuitSize + " != population circuit size " + circuitSize);
+
+		int base = c * circuitSize;
+		int wBase = base * circuitSize;
+
+		for (int i = 0; i < circuitSize; i++)
+		{
+			settings.biases[i] = biases[base + i];
+			settings.gains[i] = gains[base + i];
+			settings.outputs[i] = outputs[base + i];
+			settings.states[i] = states[base + i];
+			settings.taus[i] = taus[base + i];
+			settings.invTaus[i] = invTaus[base + i];
+			settings.externalInputs[i] = externalInputs[base + i];
+		}
+
+		System.arraycopy(weights, wBase, settings.weights, 0, circuitSize * circuitSize);
+		settings.weightsChanged();
+	}
+
+
+	/////////////////////////////////////////////////////////
+	// Numerical Integration
+	/////////////////////////////////////////////////////////
+
+	// Integrate every circuit one step using Euler integration.
+	public void EulerStep()
+	{
+		final int n = circuitSize;
+		final int neurons = populationSize * n;
+		final double dt = mTimeStep;
+
+		// Update state of all neurons of all circuits.
+		for (int c = 0; c < populationSize; c++)
+		{
+			int base = c * n;
+			int w = base * n;
+
+			for (int i = 0; i < n; i++, w += n)
+			{
+				double input = mKernel.accumulate(externalInputs[base + i], weights, w, outputs, base, n);
+
+				states[base + i] += dt * invTaus[base + i] * (input - states[base + i]);
+			}
+		}
+
+		// Update outputs of all neurons of all circuits.
+		CTRNN.transferOutputs(mTransferFunction, mTransferAccuracy, gains, states, biases, outputs, 0, neurons);
+	}
+
+	// Integrate every circuit one step using 4th-order Runge-Kutta
+	public void RungaKutta4Step()
+	{
+		final int neurons = populationSize * circuitSize;
+
+		// The first step.
+		stage(outputs, states, 0.5, 1.0/6.0, true);
+		CTRNN.transferOutputs(mTransferFunction, mTransferAccuracy, gains, TempStates, biases, TempOutputs, 0, neurons);
+
+		// The second step.
+		stage(TempOutputs, TempStates, 0.5, 1.0/3.0, false);
+		CTRNN.transferOutputs(mTransferFunction, mTransferAccuracy, gains, TempStates, biases, TempOutputs, 0, neurons);
+
+		// The third step.
+		stage(TempOutputs, TempStates, 1.0, 1.0/3.0, false);
+		CTRNN.transferOutputs(mTransferFunction, mTransferAccuracy, gains, TempStates, biases, TempOutputs, 0, neurons);
+
+		// The fourth step.
+		stage(TempOutputs, TempStates, 0.0, 1.0/6.0, false);
+		for (int i = 0; i < neurons; i++)
+			states[i] += kSum[i];
+		CTRNN.transferOutputs(mTransferFunction, mTransferAccuracy, gains, states, biases, outputs, 0, neurons);
+	}
+
+	// One Runga Kutta stage over the whole population: computes k from
+	// (stageOutputs, stageStates), accumulates weight * k into kSum and
+	// leaves states + advance * k in TempStates.
+	private void stage(double[] stageOutputs, double[] stageStates, double advance, double weight, boolean first)
+	{
+		final int n = circuitSize;
+		final double dt = mTimeStep;
+
+		for (int c = 0; c < populationSize; c++)
+		{
+			int base = c * n;
+			int w = base * n;
+
+			for (int i = 0; i < n; i++, w += n)
+			{
+				int k = base + i;
+				double input = mKernel.accumulate(externalInputs[k], weights, w, stageOutputs, base, n);
+
+				// stageStates may alias TempStates, so read it before overwriting
+				double ki = dt * invTaus[k] * (input - stageStates[k]);
+				kSum[k] = first ? weight * ki : kSum[k] + weight * ki;
+				TempStates[k] = states[k] + advance * ki;
+			}
+		}
+	}
+
+
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+
+	public double getTimeStep()
+	{
+		return mTimeStep;
+	}
+
+	public void setTimeStep(double newTimeStep)
+	{
+		mTimeStep = newTimeStep;
+	}
+
+	public CTRNNKernel getKernel()
+	{
+		return mKernel;
+	}
+
+	public void setKernel(CTRNNKernel kernel)
+	{
+		mKernel = kernel;
+	}
+
+	public CTRNN.TransferFunction getTransferFunction()
+	{
+		return mTransferFunction;
+	}
+
+	public void setTransferFunction(CTRNN.TransferFunction tf)
+	{
+		mTransferFunction = tf;
+	}
+
+	public CTRNN.TransferAccuracy getTransferAccuracy()
+	{
+		return mTransferAccuracy;
+	}
+
+	public void setTransferAccuracy(CTRNN.TransferAccuracy accuracy)
+	{
+		mTransferAccuracy = accuracy;
+	}
+
+	public double getNeuronOutput(int c, int i)
+	{
+		return outputs[c * circuitSize + i];
+	}
+
+	public double getNeuronState(int c, int i)
+	{
+		return states[c * circuitSize + i];
+	}
+
+	public void setExternalInput(int c, int i, double newExtInput)
+	{
+		externalInputs[c * circuitSize + i] = newExtInput;
+	}
+}
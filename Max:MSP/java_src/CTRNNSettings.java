@@ -14,7 +14,28 @@ public class CTRNNSettings
 	
 	// Basic circuit variables
 	public double[] biases, gains, outputs, states, taus, invTaus, externalInputs;
-	public double[][] weights;
+	
+	// Connection weights, flattened with the incoming weights of each neuron
+	// contiguous: the weight from neuron j to neuron i is weights[i * circuitSize + j]
+	public double[] weights;
+	private int mWeightsVersion;	// bumped on every weight edit, lets integrators cache derived structures
+	private int mConnectionCount;	// non-zero weights
+	
+	// The last single-weight edits, so integrators can patch what they derived
+	// from the weights instead of rebuilding it: the edit that made weights
+	// version v is at [v & (WEIGHT_EDIT_LOG - 1)]. Versions after
+	// mEditLogStart were all made by setConnectionWeight.
+	private static final int WEIGHT_EDIT_LOG = 64;
+	private final int[] mEditIndex = new int[WEIGHT_EDIT_LOG];
+	private final double[] mEditDelta = new double[WEIGHT_EDIT_LOG];
+	private int mEditLogStart;
+	
+	private int mStateVersion;		// bumped when states, outputs or the transfer function are set from outside the integrators
+	
+	// Center-crossing mode: every bias is kept at -(sum of the neuron's incoming weights) / 2
+	private boolean mCenterCrossing = false;
+	private double[] mInWeightSums;
+	private int mEditsSinceRefresh;	// incremental edits since the sums were last recomputed
 	
 	// Ranges for circuit variables, inited to default values
 	public double mBiasMax;
@@ -37,9 +58,16 @@ public class CTRNNSettings
 	
 	public int transferFunction;
 	
+	// Transfer function used for this circuit's outputs
+	private CTRNN.TransferFunction mTransferFunction = CTRNN.TransferFunction.LOGSIG;
+	private CTRNN.TransferAccuracy mTransferAccuracy = CTRNN.TransferAccuracy.EXACT;
+	
 	// Runga Kutta variables
 	public double[] TempStates, TempOutputs, k1, k2, k3, k4;
 	
+	// Summed synaptic + external input to each neuron, scratch for the integrators
+	public double[] synapticInputs;
+	
 	
 	public CTRNNSettings(int size, double biasMax, double biasMin, double gainMax, double gainMin, double tauMax, double tauMin, double weightMax, double weightMin) 
     {
@@ -54,7 +82,7 @@ public class CTRNNSettings
 	   invTaus = new double[circuitSize];
 	   
 	   externalInputs =  new double[circuitSize];
-	   weights = new double[circuitSize][circuitSize]; 
+	   weights = new double[circuitSize * circuitSize]; 
 	   
 	   // Allocate Runga Kutta variables
 	   TempStates = new double[circuitSize];	
@@ -64,6 +92,8 @@ public class CTRNNSettings
 	   k2 = new double[circuitSize];
 	   k3 = new double[circuitSize];	
 	   k4 = new double[circuitSize];
+	   
+	   synapticInputs = new double[circuitSize];
 		
 		// Initialize random circuit "bounds" 
 		mBiasMax = biasMax;
@@ -78,6 +108,34 @@ public class CTRNNSettings
 		mWeightMax = weightMax;
 		mWeightMin = weightMin;
     }
+	
+	// A copy with the same ranges, parameters and state, e.g. one per evaluation thread
+	public CTRNNSettings(CTRNNSettings other) 
+	{
+		this(other.circuitSize, other.mBiasMax, other.mBiasMin, other.mGainMax, other.mGainMin, 
+			 other.mTauMax, other.mTauMin, other.mWeightMax, other.mWeightMin);
+		
+		initialStateMax = other.initialStateMax;
+		initialStateMin = other.initialStateMin;
+		externalInputsMax = other.externalInputsMax;
+		externalInputsMin = other.externalInputsMin;
+		transferFunction = other.transferFunction;
+		mTransferFunction = other.mTransferFunction;
+		mTransferAccuracy = other.mTransferAccuracy;
+		
+		System.arraycopy(other.biases, 0, biases, 0, circuitSize);
+		System.arraycopy(other.gains, 0, gains, 0, circuitSize);
+		System.arraycopy(other.outputs, 0, outputs, 0, circuitSize);
+		System.arraycopy(other.states, 0, states, 0, circuitSize);
+		System.arraycopy(other.taus, 0, taus, 0, circuitSize);
+		System.arraycopy(other.invTaus, 0, invTaus, 0, circuitSize);
+		System.arraycopy(other.externalInputs, 0, externalInputs, 0, circuitSize);
+		System.arraycopy(other.weights, 0, weights, 0, circuitSize * circuitSize);
+		mConnectionCount = other.mConnectionCount;
+		
+		if (other.mCenterCrossing)
+			setCenterCrossing(true);
+	}
 
 	// random number in the range (min, max) 
 	public double getRandomInRange(double min, double max)
@@ -101,9 +159,10 @@ public class CTRNNSettings
 			
 			for(int j = 0; j < circuitSize; j++)
 			{
-				weights[i][j] = getRandomInRange(mWeightMin, mWeightMax);
+				weights[j * circuitSize + i] = getRandomInRange(mWeightMin, mWeightMax);
 			}
 		}
+		weightsChanged();	// also re-centers the new biases
 		
 		// calculate output from states
 		updateOutputs();
@@ -124,19 +183,53 @@ public class CTRNNSettings
 	{
 		for (int i = 0; i < circuitSize; i++) 
 		{
-			weights[i][n] = 0.0;
-			weights[n][i] = 0.0;
+			double old = weights[i * circuitSize + n];
+			if (weights[n * circuitSize + i] != 0.0) mConnectionCount--;
+			weights[n * circuitSize + i] = 0.0;
+			if (weights[i * circuitSize + n] != 0.0) mConnectionCount--;
+			weights[i * circuitSize + n] = 0.0;
+			
+			if (mCenterCrossing && i != n)
+				adjustInWeightSum(i, -old);
 		}
+		
+		if (mCenterCrossing) 
+		{
+			mInWeightSums[n] = 0.0;
+			biases[n] = 0.0;
+		}
+		mWeightsVersion++;
+		mEditLogStart = mWeightsVersion;
 	}
 	
 	public void updateOutputs() 
 	{
-		for(int i = 0; i < circuitSize; i++)
-		{
-			outputs[i] = CTRNN.sigmoid(gains[i]*(states[i] + biases[i]));
-		}
+		mStateVersion++;
+		CTRNN.transferOutputs(mTransferFunction, mTransferAccuracy, gains, states, biases, outputs, 0, circuitSize);
+	}
+	
+	
+	public CTRNN.TransferFunction getTransferFunction() 
+	{
+		return mTransferFunction;
 	}
 	
+	public void setTransferFunction(CTRNN.TransferFunction tf) 
+	{
+		mTransferFunction = tf;
+		mStateVersion++;
+	}
+	
+	public CTRNN.TransferAccuracy getTransferAccuracy() 
+	{
+		return mTransferAccuracy;
+	}
+	
+	public void setTransferAccuracy(CTRNN.TransferAccuracy accuracy) 
+	{
+		mTransferAccuracy = accuracy;
+		mStateVersion++;
+	}
 	
 	public double getNeuronState(int i) 
 	{
@@ -146,7 +239,8 @@ public class CTRNNSettings
 	public void setNeuronState(int i, double newState) 
 	{
 		states[i] = newState;
-		outputs[i] = CTRNN.sigmoid(gains[i]*(states[i] + biases[i]));
+		mStateVersion++;
+		outputs[i] = CTRNN.genericTransferFunction(mTransferFunction, mTransferAccuracy, gains[i]*(states[i] + biases[i]));
 	}
 	
 	public double getNeuronOutput(int i) 
@@ -203,14 +297,209 @@ public class CTRNNSettings
 	
 	public double getConnectionWeight(int from, int to) 
 	{
-		return weights[from][to];
+		return weights[to * circuitSize + from];
 	}
 	
 	public void setConnectionWeight(int from, int to, double newWeight) 
 	{
-		weights[from][to] = newWeight;
+		int w = to * circuitSize + from;
+		double old = weights[w];
+		
+		weights[w] = newWeight;
+		if ((old != 0.0) != (newWeight != 0.0))
+			mConnectionCount += (newWeight != 0.0) ? 1 : -1;
+		
+		mWeightsVersion++;
+		mEditIndex[mWeightsVersion & (WEIGHT_EDIT_LOG - 1)] = w;
+		mEditDelta[mWeightsVersion & (WEIGHT_EDIT_LOG - 1)] = newWeight - old;
+		
+		if (mCenterCrossing)
+			adjustInWeightSum(to, newWeight - old);
+	}
+	
+	// Call after writing the weights array directly
+	public void weightsChanged() 
+	{
+		mWeightsVersion++;
+		mEditLogStart = mWeightsVersion;
+		mConnectionCount = CTRNNSparseWeights.countConnections(weights, circuitSize);
+		
+		if (mCenterCrossing)
+			recenter();
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Center Crossing
+	/////////////////////////////////////////////////////////
+	
+	// In center-crossing mode each bias is held at -(sum of incoming weights) / 2,
+	// so every neuron sits at the most sensitive point of its transfer function.
+	// setConnectionWeight and LesionNeuron update only the sums and biases they
+	// affect; direct writes to weights need weightsChanged() to recompute them.
+	public void setCenterCrossing(boolean centerCrossing) 
+	{
+		mCenterCrossing = centerCrossing;
+		
+		if (centerCrossing) 
+		{
+			if (mInWeightSums == null)
+				mInWeightSums = new double[circuitSize];
+			recenter();
+		}
+	}
+	
+	public boolean isCenterCrossing() 
+	{
+		return mCenterCrossing;
 	}
 	
+	// Sum of the incoming weights of neuron i
+	public double getInWeightSum(int i) 
+	{
+		if (mCenterCrossing)
+			return mInWeightSums[i];
+		
+		double sum = 0.0;
+		for (int j = 0, w = i * circuitSize; j < circuitSize; j++, w++)
+			sum += weights[w];
+		return sum;
+	}
+	
+	private void adjustInWeightSum(int i, double delta) 
+	{
+		// Recompute everything once the edits could have cost as much, which
+		// also stops round-off from accumulating in the running sums
+		if (++mEditsSinceRefresh > circuitSize * circuitSize) 
+		{
+			recenter();
+			return;
+		}
+		
+		mInWeightSums[i] += delta;
+		biases[i] = -mInWeightSums[i] / 2.0;
+	}
+	
+	private void recenter() 
+	{
+		for (int i = 0; i < circuitSize; i++) 
+		{
+			double sum = 0.0;
+			for (int j = 0, w = i * circuitSize; j < circuitSize; j++, w++)
+				sum += weights[w];
+			
+			mInWeightSums[i] = sum;
+			biases[i] = -sum / 2.0;
+		}
+		mEditsSinceRefresh = 0;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Genomes
+	/////////////////////////////////////////////////////////
+	
+	// A genome is the circuit's parameters as genes in [-1, 1], each mapped
+	// linearly onto the parameter's range: the weights in weights[] order,
+	// then the biases, gains and time constants. In center-crossing mode the
+	// bias genes are ignored.
+	public int getGenomeLength() 
+	{
+		return circuitSize * circuitSize + 3 * circuitSize;
+	}
+	
+	// Copy the genome into the circuit parameters. The states are left alone.
+	public void setGenome(double[] genome) 
+	{
+		int n = circuitSize;
+		int g = 0;
+		
+		for (int w = 0; w < n * n; w++)
+			weights[w] = geneToValue(genome[g++], mWeightMin, mWeightMax);
+		
+		for (int i = 0; i < n; i++)
+			biases[i] = geneToValue(genome[g++], mBiasMin, mBiasMax);
+		
+		for (int i = 0; i < n; i++)
+			gains[i] = geneToValue(genome[g++], mGainMin, mGainMax);
+		
+		for (int i = 0; i < n; i++) 
+		{
+			taus[i] = geneToValue(genome[g++], mTauMin, mTauMax);
+			invTaus[i] = 1.0/taus[i];
+		}
+		
+		weightsChanged();	// also re-centers the biases
+	}
+	
+	// Write the circuit parameters into genome, clamping values outside their ranges
+	public void getGenome(double[] genome) 
+	{
+		int n = circuitSize;
+		int g = 0;
+		
+		for (int w = 0; w < n * n; w++)
+			genome[g++] = valueToGene(weights[w], mWeightMin, mWeightMax);
+		
+		for (int i = 0; i < n; i++)
+			genome[g++] = valueToGene(biases[i], mBiasMin, mBiasMax);
+		
+		for (int i = 0; i < n; i++)
+			genome[g++] = valueToGene(gains[i], mGainMin, mGainMax);
+		
+		for (int i = 0; i < n; i++)
+			genome[g++] = valueToGene(taus[i], mTauMin, mTauMax);
+	}
+	
+	private static double geneToValue(double gene, double min, double max) 
+	{
+		gene = Math.max(-1.0, Math.min(1.0, gene));
+		return min + (gene + 1.0) * 0.5 * (max - min);
+	}
+	
+	private static double valueToGene(double value, double min, double max) 
+	{
+		if (max == min)
+			return 0.0;
+		double gene = 2.0 * (value - min) / (max - min) - 1.0;
+		return Math.max(-1.0, Math.min(1.0, gene));
+	}
+	
+	public int getWeightsVersion() 
+	{
+		return mWeightsVersion;
+	}
+	
+	// Number of non-zero weights
+	public int getConnectionCount() 
+	{
+		return mConnectionCount;
+	}
+	
+	// True if every weights version after version came from a
+	// setConnectionWeight still in the edit log, i.e. a cache built at version
+	// can be patched with getWeightEditIndex/Delta of version + 1 .. current
+	public boolean hasWeightEditsSince(int version) 
+	{
+		return version - mEditLogStart >= 0 && mWeightsVersion - version <= WEIGHT_EDIT_LOG;
+	}
+	
+	// Index into weights of the edit that made weights version version
+	public int getWeightEditIndex(int version) 
+	{
+		return mEditIndex[version & (WEIGHT_EDIT_LOG - 1)];
+	}
+	
+	// New minus old weight of that edit
+	public double getWeightEditDelta(int version) 
+	{
+		return mEditDelta[version & (WEIGHT_EDIT_LOG - 1)];
+	}
+	
+	public int getStateVersion() 
+	{
+		return mStateVersion;
+	}
 	
 
 }
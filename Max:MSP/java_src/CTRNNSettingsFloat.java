@@ -0,0 +1,158 @@
+//
+//  CTRNNSettingsFloat.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// Single precision copy of a circuit's parameters and state, stepped by
+// CTRNNFloat. Same layout as CTRNNSettings, including the flattened weights
+// (the weight from neuron j to neuron i is weights[i * circuitSize + j]).
+public class CTRNNSettingsFloat
+{
+	public int circuitSize;
+	
+	// Basic circuit variables
+	public float[] biases, gains, outputs, states, taus, invTaus, externalInputs;
+	public float[] weights;
+	
+	// Runga Kutta variables
+	public float[] TempStates, TempOutputs, k1, k2, k3, k4;
+	
+	// Summed synaptic + external input to each neuron, scratch for the integrators
+	public float[] synapticInputs;
+	
+	// Transfer function used for this circuit's outputs
+	private CTRNN.TransferFunction mTransferFunction = CTRNN.TransferFunction.LOGSIG;
+	private CTRNN.TransferAccuracy mTransferAccuracy = CTRNN.TransferAccuracy.EXACT;
+	
+	
+	public CTRNNSettingsFloat(int size) 
+	{
+		circuitSize = size;
+		
+		// Allocate
+		biases = new float[circuitSize];
+		gains = new float[circuitSize];
+		outputs = new float[circuitSize];
+		states = new float[circuitSize];
+		taus = new float[circuitSize];
+		invTaus = new float[circuitSize];
+		
+		externalInputs = new float[circuitSize];
+		weights = new float[circuitSize * circuitSize];
+		
+		// Allocate Runga Kutta variables
+		TempStates = new float[circuitSize];
+		TempOutputs = new float[circuitSize];
+		
+		k1 = new float[circuitSize];
+		k2 = new float[circuitSize];
+		k3 = new float[circuitSize];
+		k4 = new float[circuitSize];
+		
+		synapticInputs = new float[circuitSize];
+	}
+	
+	public CTRNNSettingsFloat(CTRNNSettings settings) 
+	{
+		this(settings.circuitSize);
+		copyFrom(settings);
+	}
+	
+	// Round a double precision circuit into this one
+	public void copyFrom(CTRNNSettings settings) 
+	{
+		for (int i = 0; i < circuitSize; i++) 
+		{
+			biases[i] = (float) settings.biases[i];
+			gains[i] = (float) settings.gains[i];
+			outputs[i] = (float) settings.outputs[i];
+			states[i] = (float) settings.states[i];
+			taus[i] = (float) settings.taus[i];
+			invTaus[i] = (float) settings.invTaus[i];
+			externalInputs[i] = (float) settings.externalInputs[i];
+		}
+		
+		for (int k = 0; k < circuitSize * circuitSize; k++)
+			weights[k] = (float) settings.weights[k];
+		
+		mTransferFunction = settings.getTransferFunction();
+		mTransferAccuracy = settings.getTransferAccuracy();
+	}
+	
+	// Widen this circuit back into a double precision one
+	public void copyTo(CTRNNSettings settings) 
+	{
+		for (int i = 0; i < circuitSize; i++) 
+		{
+			settings.biases[i] = biases[i];
+			settings.gains[i] = gains[i];
+			settings.outputs[i] = outputs[i];
+			settings.states[i] = states[i];
+			settings.taus[i] = taus[i];
+			settings.invTaus[i] = invTaus[i];
+			settings.externalInputs[i] = externalInputs[i];
+		}
+		
+		for (int k = 0; k < circuitSize * circuitSize; k++)
+			settings.weights[k] = weights[k];
+		settings.weightsChanged();
+		
+		settings.setTransferFunction(mTransferFunction);
+		settings.setTransferAccuracy(mTransferAccuracy);
+	}
+	
+	
+	public CTRNN.TransferFunction getTransferFunction() 
+	{
+		return mTransferFunction;
+	}
+	
+	public void setTransferFunction(CTRNN.TransferFunction tf) 
+	{
+		mTransferFunction = tf;
+	}
+	
+	public CTRNN.TransferAccuracy getTransferAccuracy() 
+	{
+		return mTransferAccuracy;
+	}
+	
+	public void setTransferAccuracy(CTRNN.TransferAccuracy accuracy) 
+	{
+		mTransferAccuracy = accuracy;
+	}
+	
+	public float getNeuronState(int i) 
+	{
+		return states[i];
+	}
+	
+	public float getNeuronOutput(int i) 
+	{
+		return outputs[i];
+	}
+	
+	public void setExternalInput(int i, float newExtInput) 
+	{
+		externalInputs[i] = newExtInput;
+	}
+	
+	public float getConnectionWeight(int from, int to) 
+	{
+		return weights[to * circuitSize + from];
+	}
+	
+	public void setConnectionWeight(int from, int to, float newWeight) 
+	{
+		weights[to * circuitSize + from] = newWeight;
+	}
+	
+	public void setNeuronTimeConstant(int i, float newTau) 
+	{
+		taus[i] = newTau;
+		invTaus[i] = 1.0f/newTau;
+	}
+}
@@ -0,0 +1,145 @@
+//
+//  CTRNNSparseWeights.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+
+// Compressed-row (CSR) form of a circuit's connection weights. Row i lists
+// the incoming connections of neuron i: for rowStart[i] <= k < rowStart[i + 1]
+// the weight from neuron sources[k] to neuron i is values[k]. Absent (zero)
+// synapses are not stored, so a step costs O(connections) instead of O(N^2).
+// The sources of each row are in increasing order.
+public class CTRNNSparseWeights
+{
+	public int circuitSize;
+	public int[] rowStart;
+	public int[] sources;
+	public double[] values;
+	
+	
+	public CTRNNSparseWeights(int size, int[] rowStart, int[] sources, double[] values)
+	{
+		circuitSize = size;
+		this.rowStart = rowStart;
+		this.sources = sources;
+		this.values = values;
+	}
+	
+	// Build from the flattened dense layout of CTRNNSettings.weights
+	public static CTRNNSparseWeights fromDense(double[] weights, int n)
+	{
+		int nnz = countConnections(weights, n);
+		int[] rowStart = new int[n + 1];
+		int[] sources = new int[nnz];
+		double[] values = new double[nnz];
+		
+		int k = 0;
+		for (int i = 0, w = 0; i < n; i++, w += n)
+		{
+			rowStart[i] = k;
+			for (int j = 0; j < n; j++)
+			{
+				if (weights[w + j] != 0.0)
+				{
+					sources[k] = j;
+					values[k] = weights[w + j];
+					k++;
+				}
+			}
+		}
+		rowStart[n] = k;
+		
+		return new CTRNNSparseWeights(n, rowStart, sources, values);
+	}
+	
+	public static int countConnections(double[] weights, int n)
+	{
+		int nnz = 0;
+		for (int k = 0; k < n * n; k++)
+			if (weights[k] != 0.0) nnz++;
+		return nnz;
+	}
+	
+	
+	// out[i] = ext[i] + sum over incoming connections of weight * x[source], for lo <= i < hi
+	public void weightedInputs(double[] x, double[] ext, double[] out, int lo, int hi)
+	{
+		for (int i = lo; i < hi; i++)
+			out[i] = weightedInput(i, x, ext[i]);
+	}
+	
+	// acc + sum over the incoming connections of neuron i of weight * x[source]
+	public double weightedInput(int i, double[] x, double acc)
+	{
+		for (int k = rowStart[i], end = rowStart[i + 1]; k < end; k++)
+			acc += values[k] * x[sources[k]];
+		return acc;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Accessors
+	/////////////////////////////////////////////////////////
+	
+	public int getConnectionCount() 
+	{
+		return rowStart[circuitSize];
+	}
+	
+	public double getDensity() 
+	{
+		return (double) getConnectionCount() / ((double) circuitSize * circuitSize);
+	}
+	
+	public double getConnectionWeight(int from, int to) 
+	{
+		for (int k = rowStart[to]; k < rowStart[to + 1]; k++)
+			if (sources[k] == from) return values[k];
+		return 0.0;
+	}
+	
+	// Patch one weight: O(row length) to change an existing connection,
+	// O(connections + N) to add or remove one
+	public void setConnectionWeight(int from, int to, double weight) 
+	{
+		int k = rowStart[to], end = rowStart[to + 1];
+		while (k < end && sources[k] < from)
+			k++;
+		
+		boolean exists = k < end && sources[k] == from;
+		if (exists && weight != 0.0) 
+		{
+			values[k] = weight;
+			return;
+		}
+		if (!exists && weight == 0.0)
+			return;
+		
+		int nnz = getConnectionCount();
+		int step = exists ? -1 : 1;
+		int[] newSources = new int[nnz + step];
+		double[] newValues = new double[nnz + step];
+		
+		System.arraycopy(sources, 0, newSources, 0, k);
+		System.arraycopy(values, 0, newValues, 0, k);
+		if (exists) 
+		{
+			System.arraycopy(sources, k + 1, newSources, k, nnz - k - 1);
+			System.arraycopy(values, k + 1, newValues, k, nnz - k - 1);
+		}
+		else 
+		{
+			newSources[k] = from;
+			newValues[k] = weight;
+			System.arraycopy(sources, k, newSources, k + 1, nnz - k);
+			System.arraycopy(values, k, newValues, k + 1, nnz - k);
+		}
+		
+		for (int i = to + 1; i <= circuitSize; i++)
+			rowStart[i] += step;
+		sources = newSources;
+		values = newValues;
+	}
+}
@@ -0,0 +1,323 @@
+//
+//  CTRNNSpectralAnalysis.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import java.util.Arrays;
+
+// Frequency-domain analysis of a window of neuron outputs, laid out as
+// CTRNN.advance() records them: neuron i of sample s at [offset + s * neurons + i].
+//
+// analyze() transforms every neuron once, and the pairwise measures reuse
+// those transforms, so all pairs cost O(N^2 * bins) on top of O(N * T log T)
+// instead of O(N^2 * T^2) time-domain correlation:
+//  - power spectra, dominant frequency and magnitude-squared coherence use
+//    Welch's method, averaging Hann-windowed segments of segmentLength
+//    samples that overlap by half;
+//  - cross-correlation uses one zero-padded transform of the whole window.
+// Outputs are taken about each neuron's mean over the window. The FFT plans
+// and buffers are kept between calls and only grow for longer windows. The
+// padded transforms are made on the first cross-correlation, so the record
+// must not change between analyze() and the cross-correlations.
+public class CTRNNSpectralAnalysis
+{
+	private final int n;				// neurons
+	private final int mSegment;			// Welch segment length
+	private final int mBins;			// mSegment / 2 + 1
+	private double mSampleInterval;
+	
+	private final CTRNNFFT mSegmentFFT;
+	private CTRNNFFT mFullFFT;
+	private final double[] mWindow;
+	private double mWindowPower;		// sum of the squared window
+	
+	// Per-analysis results
+	private int mSamples, mSegments;
+	private final double[] mMeans, mSumSquares;
+	private double[] mSegmentRe, mSegmentIm;	// neuron i, segment g, bin k at [(i * segments + g) * bins + k]
+	private final double[] mPower;				// neuron i, bin k at [i * bins + k]
+	private double[] mFullRe, mFullIm;			// neuron i's padded transform at [i * fullSize + k]
+	private boolean mFullValid;
+	private double[] mRecord;
+	private int mRecordOffset;
+	
+	// Scratch
+	private final double[] mRe, mIm;
+	private double[] mFullScratchRe, mFullScratchIm;
+	
+	
+	// segmentLength must be a power of two of at least 2
+	public CTRNNSpectralAnalysis(int neurons, int segmentLength, double sampleInterval) 
+	{
+		if (segmentLength < 2 || (segmentLength & (segmentLength - 1)) != 0)
+			throw new IllegalArgumentException("segment length must be a power of two of at least 2: " + segmentLength);
+		
+		n = neurons;
+		mSegment = segmentLength;
+		mBins = segmentLength / 2 + 1;
+		mSampleInterval = sampleInterval;
+		
+		mSegmentFFT = new CTRNNFFT(segmentLength);
+		
+		// Hann window
+		mWindow = new double[segmentLength];
+		for (int t = 0; t < segmentLength; t++) 
+		{
+			mWindow[t] = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * t / segmentLength);
+			mWindowPower += mWindow[t] * mWindow[t];
+		}
+		
+		mMeans = new double[n];
+		mSumSquares = new double[n];
+		mPower = new double[n * mBins];
+		mRe = new double[segmentLength];
+		mIm = new double[segmentLength];
+	}
+	
+	// Analyze samples samples (at least segmentLength) of every neuron
+	public void analyze(double[] record, int offset, int samples) 
+	{
+		if (samples < mSegment)
+			throw new IllegalArgumentException("need at least " + mSegment + " samples, got " + samples);
+		
+		mSamples = samples;
+		mSegments = 1 + (samples - mSegment) / (mSegment / 2);
+		
+		int segmentValues = n * mSegments * mBins;
+		if (mSegmentRe == null || mSegmentRe.length < segmentValues) 
+		{
+			mSegmentRe = new double[segmentValues];
+			mSegmentIm = new double[segmentValues];
+		}
+		
+		// Means and spread about them
+		for (int i = 0; i < n; i++) 
+		{
+			double sum = 0.0;
+			for (int s = 0, r = offset + i; s < samples; s++, r += n)
+				sum += record[r];
+			double mean = sum / samples;
+			
+			double sumSquares = 0.0;
+			for (int s = 0, r = offset + i; s < samples; s++, r += n)
+				sumSquares += (record[r] - mean) * (record[r] - mean);
+			
+			mMeans[i] = mean;
+			mSumSquares[i] = sumSquares;
+		}
+		
+		// Welch segments
+		Arrays.fill(mPower, 0.0);
+		for (int i = 0; i < n; i++) 
+		{
+			for (int g = 0; g < mSegments; g++) 
+			{
+				int start = g * (mSegment / 2);
+				for (int t = 0, r = offset + start * n + i; t < mSegment; t++, r += n) 
+				{
+					mRe[t] = (record[r] - mMeans[i]) * mWindow[t];
+					mIm[t] = 0.0;
+				}
+				mSegmentFFT.transform(mRe, mIm);
+				
+				int base = (i * mSegments + g) * mBins;
+				for (int k = 0; k < mBins; k++) 
+				{
+					mSegmentRe[base + k] = mRe[k];
+					mSegmentIm[base + k] = mIm[k];
+					mPower[i * mBins + k] += mRe[k] * mRe[k] + mIm[k] * mIm[k];
+				}
+			}
+		}
+		
+		// One-sided power spectral density
+		double scale = mSampleInterval / (mWindowPower * mSegments);
+		for (int i = 0; i < n; i++) 
+		{
+			for (int k = 0; k < mBins; k++) 
+			{
+				boolean edge = (k == 0 || k == mBins - 1);
+				mPower[i * mBins + k] *= edge ? scale : 2.0 * scale;
+			}
+		}
+		
+		// padded transforms are made on demand
+		mRecord = record;
+		mRecordOffset = offset;
+		mFullValid = false;
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Spectra
+	/////////////////////////////////////////////////////////
+	
+	public int getBinCount() 
+	{
+		return mBins;
+	}
+	
+	public double getBinFrequency(int k) 
+	{
+		return k / (mSegment * mSampleInterval);
+	}
+	
+	// Power spectral density of neuron i at bin k
+	public double getPower(int i, int k) 
+	{
+		return mPower[i * mBins + k];
+	}
+	
+	// Frequency of the strongest non-DC bin, refined by fitting a parabola
+	// through it and its neighbours' log power
+	public double getDominantFrequency(int i) 
+	{
+		int base = i * mBins;
+		int peak = 1;
+		for (int k = 2; k < mBins; k++)
+			if (mPower[base + k] > mPower[base + peak]) peak = k;
+		
+		double shift = 0.0;
+		if (peak < mBins - 1 && mPower[base + peak] > 0.0) 
+		{
+			double a = Math.log(mPower[base + peak - 1] + Double.MIN_VALUE);
+			double b = Math.log(mPower[base + peak]);
+			double c = Math.log(mPower[base + peak + 1] + Double.MIN_VALUE);
+			double denominator = a - 2.0 * b + c;
+			if (denominator < 0.0)
+				shift = 0.5 * (a - c) / denominator;
+		}
+		return (peak + shift) / (mSegment * mSampleInterval);
+	}
+	
+	// Magnitude-squared coherence of neurons i and j at every bin, into out[0 .. bins)
+	public void getCoherence(int i, int j, double[] out) 
+	{
+		for (int k = 0; k < mBins; k++) 
+		{
+			double crossRe = 0.0, crossIm = 0.0, powerI = 0.0, powerJ = 0.0;
+			for (int g = 0; g < mSegments; g++) 
+			{
+				int a = (i * mSegments + g) * mBins + k;
+				int b = (j * mSegments + g) * mBins + k;
+				double ar = mSegmentRe[a], ai = mSegmentIm[a];
+				double br = mSegmentRe[b], bi = mSegmentIm[b];
+				
+				crossRe += ar * br + ai * bi;
+				crossIm += ai * br - ar * bi;
+				powerI += ar * ar + ai * ai;
+				powerJ += br * br + bi * bi;
+			}
+			double denominator = powerI * powerJ;
+			out[k] = (denominator > 0.0) ? (crossRe * crossRe + crossIm * crossIm) / denominator : 0.0;
+		}
+	}
+	
+	// Mean coherence over all non-DC bins of every pair, into out[i * neurons + j]
+	public void getCoherenceMatrix(double[] out) 
+	{
+		double[] coherence = new double[mBins];
+		for (int i = 0; i < n; i++) 
+		{
+			out[i * n + i] = 1.0;
+			for (int j = i + 1; j < n; j++) 
+			{
+				getCoherence(i, j, coherence);
+				double sum = 0.0;
+				for (int k = 1; k < mBins; k++)
+					sum += coherence[k];
+				out[i * n + j] = out[j * n + i] = sum / (mBins - 1);
+			}
+		}
+	}
+	
+	
+	/////////////////////////////////////////////////////////
+	// Cross-correlation
+	/////////////////////////////////////////////////////////
+	
+	// Normalized cross-correlation sum_t x_i(t + lag) x_j(t) / sqrt(sum x_i^2 sum x_j^2)
+	// for lag = -maxLag .. maxLag, into out[maxLag + lag]
+	public void getCrossCorrelation(int i, int j, int maxLag, double[] out) 
+	{
+		prepareFull();
+		
+		int size = mFullFFT.getSize();
+		double[] re = mFullScratchRe, im = mFullScratchIm;
+		
+		// X_i conj(X_j)
+		for (int k = 0, a = i * size, b = j * size; k < size; k++, a++, b++) 
+		{
+			re[k] = mFullRe[a] * mFullRe[b] + mFullIm[a] * mFullIm[b];
+			im[k] = mFullIm[a] * mFullRe[b] - mFullRe[a] * mFullIm[b];
+		}
+		mFullFFT.inverse(re, im);
+		
+		double norm = Math.sqrt(mSumSquares[i] * mSumSquares[j]);
+		maxLag = Math.min(maxLag, mSamples - 1);
+		for (int lag = -maxLag; lag <= maxLag; lag++) 
+		{
+			double r = re[(lag >= 0) ? lag : size + lag];
+			out[maxLag + lag] = (norm > 0.0) ? r / norm : 0.0;
+		}
+	}
+	
+	// For every pair the lag within +-maxLag of the largest absolute
+	// correlation, into lags[i * neurons + j], and that correlation into values
+	public void getPeakCrossCorrelations(int maxLag, double[] values, int[] lags) 
+	{
+		maxLag = Math.min(maxLag, mSamples - 1);
+		double[] correlation = new double[2 * maxLag + 1];
+		
+		for (int i = 0; i < n; i++) 
+		{
+			for (int j = 0; j < n; j++) 
+			{
+				getCrossCorrelation(i, j, maxLag, correlation);
+				int best = 0;
+				for (int l = 1; l < correlation.length; l++)
+					if (Math.abs(correlation[l]) > Math.abs(correlation[best])) best = l;
+				
+				values[i * n + j] = correlation[best];
+				lags[i * n + j] = best - maxLag;
+			}
+		}
+	}
+	
+	// Zero-padded transforms of the whole window, long enough that the
+	// circular correlation has no wrap-around
+	private void prepareFull() 
+	{
+		if (mFullValid)
+			return;
+		
+		int size = CTRNNFFT.nextPowerOfTwo(2 * mSamples);
+		if (mFullFFT == null || mFullFFT.getSize() != size) 
+		{
+			mFullFFT = new CTRNNFFT(size);
+			mFullScratchRe = new double[size];
+			mFullScratchIm = new double[size];
+		}
+		
+		if (mFullRe == null || mFullRe.length < n * size) 
+		{
+			mFullRe = new double[n * size];
+			mFullIm = new double[n * size];
+		}
+		
+		for (int i = 0; i < n; i++) 
+		{
+			Arrays.fill(mFullScratchRe, 0.0);
+			Arrays.fill(mFullScratchIm, 0.0);
+			for (int s = 0; s < mSamples; s++)
+				mFullScratchRe[s] = mRecord[mRecordOffset + s * n + i] - mMeans[i];
+			
+			mFullFFT.transform(mFullScratchRe, mFullScratchIm);
+			System.arraycopy(mFullScratchRe, 0, mFullRe, i * size, size);
+			System.arraycopy(mFullScratchIm, 0, mFullIm, i * size, size);
+		}
+		mFullValid = true;
+	}
+}
@@ -0,0 +1,125 @@
+//
+//  CTRNNVectorKernel.java
+//  CTRNN
+//
+//  Copyright (c) 2010-2012 de'fchild productions. All rights reserved.
+//
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+// SIMD kernel built on the Java Vector API (JDK 16+). This file is optional:
+// compile it separately with
+//
+//   javac --add-modules jdk.incubator.vector CTRNNVectorKernel.java
+//
+// and run with --add-modules jdk.incubator.vector. CTRNNKernel.getDefault()
+// falls back to the scalar kernel when it is absent.
+public class CTRNNVectorKernel extends CTRNNKernel
+{
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	
+	private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+	private static final int FLOAT_LANES = FLOAT_SPECIES.length();
+	
+	// Below this many terms the scalar loop beats the vector setup and reduction
+	private static final int MIN_VECTOR_LENGTH = 2 * LANES;
+	
+	
+	public double accumulate(double acc, double[] weights, int wOff, double[] x, int xOff, int n)
+	{
+		if (n < MIN_VECTOR_LENGTH)
+		{
+			for (int j = 0; j < n; j++)
+				acc += weights[wOff + j] * x[xOff + j];
+			return acc;
+		}
+		
+		int bound = SPECIES.loopBound(n);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int j = 0;
+		
+		for (; j < bound; j += LANES)
+		{
+			DoubleVector w = DoubleVector.fromArray(SPECIES, weights, wOff + j);
+			DoubleVector v = DoubleVector.fromArray(SPECIES, x, xOff + j);
+			sum = w.fma(v, sum);
+		}
+		acc += sum.reduceLanes(VectorOperators.ADD);
+		
+		// Tail
+		for (; j < n; j++)
+			acc += weights[wOff + j] * x[xOff + j];
+		
+		return acc;
+	}
+	
+	public void derivative(double dt, double[] invTaus, double[] inputs, double[] states, double[] k, int lo, int hi)
+	{
+		int i = lo;
+		int bound = lo + SPECIES.loopBound(hi - lo);
+		
+		for (; i < bound; i += LANES)
+		{
+			DoubleVector in = DoubleVector.fromArray(SPECIES, inputs, i);
+			DoubleVector s = DoubleVector.fromArray(SPECIES, states, i);
+			DoubleVector it = DoubleVector.fromArray(SPECIES, invTaus, i);
+			in.sub(s).mul(it).mul(dt).intoArray(k, i);
+		}
+		
+		for (; i < hi; i++)
+			k[i] = dt * invTaus[i] * (inputs[i] - states[i]);
+	}
+	
+	public void axpy(double[] base, double a, double[] k, double[] out, int lo, int hi)
+	{
+		int i = lo;
+		int bound = lo + SPECIES.loopBound(hi - lo);
+		
+		for (; i < bound; i += LANES)
+		{
+			DoubleVector b = DoubleVector.fromArray(SPECIES, base, i);
+			DoubleVector.fromArray(SPECIES, k, i).mul(a).add(b).intoArray(out, i);
+		}
+		
+		for (; i < hi; i++)
+			out[i] = base[i] + a * k[i];
+	}
+	
+	public float accumulate(float acc, float[] weights, int wOff, float[] x, int xOff, int n)
+	{
+		if (n < 2 * FLOAT_LANES)
+		{
+			for (int j = 0; j < n; j++)
+				acc += weights[wOff + j] * x[xOff + j];
+			return acc;
+		}
+		
+		int bound = FLOAT_SPECIES.loopBound(n);
+		FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+		int j = 0;
+		
+		for (; j < bound; j += FLOAT_LANES)
+		{
+			FloatVector w = FloatVector.fromArray(FLOAT_SPECIES, weights, wOff + j);
+			FloatVector v = FloatVector.fromArray(FLOAT_SPECIES, x, xOff + j);
+			sum = w.fma(v, sum);
+		}
+		acc += sum.reduceLanes(VectorOperators.ADD);
+		
+		// Tail
+		for (; j < n; j++)
+			acc += weights[wOff + j] * x[xOff + j];
+		
+		return acc;
+	}
+	
+	public String toString()
+	{
+		return "vector (" + LANES + " x double)";
+	}
+}
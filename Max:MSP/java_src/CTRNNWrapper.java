@@ -25,6 +25,7 @@ public class CTRNNWrapper extends MaxObject
 	MaxQelem mQelem;
 
 	private double mTickPeriod;  // in milliseconds
+	private int mStepsPerTick = 1;  // integration steps per scheduler tick
 	private double[] mInput;
 
 
@@ -32,13 +33,19 @@ public class CTRNNWrapper extends MaxObject
 	private CTRNN mCTRNN;			
 	private CTRNNSettings mSettings;
 	private int mCircuitSize;
+	private CTRNNOnlineStats mStats;	// running output statistics, null when off
 
 
 	// Numerical Integration technique
-	public enum NumericalIntegration { RUNGEKUTTA, EULER };
+	public enum NumericalIntegration { RUNGEKUTTA, EULER, DORMANDPRINCE, EXPONENTIALEULER, MULTIRATEEULER };
 	private NumericalIntegration mMethod = NumericalIntegration.RUNGEKUTTA;
 
 
+	// Transfer function, kept here so it survives newRandomCircuit()
+	private CTRNN.TransferFunction mTransferFunction = CTRNN.TransferFunction.LOGSIG;
+	private CTRNN.TransferAccuracy mTransferAccuracy = CTRNN.TransferAccuracy.EXACT;
+
+
 	// Local State for random circuit settings ranges, independent of individual CTRNNs
 	public double mBiasMax = 4.0;
 	public double mBiasMin = -4.0;
@@ -157,12 +164,12 @@ public class CTRNNWrapper extends MaxObject
 	
 
 		// Update circuit via numerical integration using
-		// either Euler or RungaKutta methods
-        switch (mMethod) 
-		{
-            case RUNGEKUTTA:   mCTRNN.RungaKutta4Step(); break;
-            case EULER:		   mCTRNN.EulerStep(); break;
-        }
+		// Euler, RungaKutta, adaptive Dormand-Prince or exponential Euler methods,
+		// mStepsPerTick steps per tick
+		mCTRNN.advance(mStepsPerTick);
+
+		if (mStats != null)
+			mStats.add(mSettings.outputs);
 
 
 		// Set  Outputs
@@ -188,10 +195,65 @@ public class CTRNNWrapper extends MaxObject
 		if(period >= 1.0) mTickPeriod = period;
 	}
 
+	public void stepsPerTick(int steps) 
+	{
+		if(steps >= 1) mStepsPerTick = steps;
+		updateStatisticsInterval();
+	}
+
 	public void timeStep(double timeStep) 
 	{
 		// timeStep is a property
 		mCTRNN.setTimeStep(timeStep);
+		updateStatisticsInterval();
+	}
+
+	public void tolerance(double tolerance) 
+	{
+		// absolute & relative error tolerance for the adaptive integrator
+		mCTRNN.setTolerances(tolerance, tolerance);
+	}
+
+
+	/////////////////////////////////////////////////////////
+	// Output Statistics 
+	/////////////////////////////////////////////////////////
+
+	// Collect running statistics of the outputs sampled every tick, with
+	// autocorrelations up to maxLag ticks back; a negative maxLag turns them off
+	public void statistics(int maxLag) 
+	{
+		post("statistics: " + maxLag);
+		if (maxLag < 0) 
+		{
+			mStats = null;
+			return;
+		}
+		mStats = new CTRNNOnlineStats(mSettings.circuitSize, maxLag);
+		updateStatisticsInterval();
+	}
+
+	// Statistics are sampled once per tick
+	private void updateStatisticsInterval() 
+	{
+		if (mStats != null)
+			mStats.setSampleInterval(mStepsPerTick * mCTRNN.getTimeStep());
+	}
+
+	public void postStatistics() 
+	{
+		if (mStats == null || mStats.getCount() == 0) 
+		{
+			post("no statistics collected");
+			return;
+		}
+		
+		for (int i = 0; i < mSettings.circuitSize; i++) 
+		{
+			post("neuron " + i + ": mean " + mStats.getMean(i) + " sd " + mStats.getStandardDeviation(i) 
+				+ " skew " + mStats.getSkewness(i) + " kurtosis " + mStats.getKurtosis(i) 
+				+ " trend " + mStats.getTrend(i) + " season " + mStats.getSeasonalLag(i));
+		}
 	}
 
 
@@ -216,11 +278,25 @@ public class CTRNNWrapper extends MaxObject
 
         switch (tf) 
 		{
-            case 0: mCTRNN.setTransferFunction(CTRNN.TransferFunction.LOGSIG); break;
-            case 1: mCTRNN.setTransferFunction(CTRNN.TransferFunction.TANH); break;
-            case 2: mCTRNN.setTransferFunction(CTRNN.TransferFunction.TANH_SINE_MIX);break;
-            default:mCTRNN.setTransferFunction(CTRNN.TransferFunction.LOGSIG); break; // default for NOW!
+            case 0: mTransferFunction = CTRNN.TransferFunction.LOGSIG; break;
+            case 1: mTransferFunction = CTRNN.TransferFunction.TANH; break;
+            case 2: mTransferFunction = CTRNN.TransferFunction.TANH_SINE_MIX;break;
+            default:mTransferFunction = CTRNN.TransferFunction.LOGSIG; break; // default for NOW!
+        }	
+		mCTRNN.setTransferFunction(mTransferFunction);
+	}
+
+	public void transferAccuracy(int accuracy) 
+	{
+		post("transferAccuracy: "+ accuracy);
+
+        switch (accuracy) 
+		{
+            case 1: mTransferAccuracy = CTRNN.TransferAccuracy.POLYNOMIAL; break;
+            case 2: mTransferAccuracy = CTRNN.TransferAccuracy.TABLE; break;
+            default:mTransferAccuracy = CTRNN.TransferAccuracy.EXACT; break;
         }	
+		mCTRNN.setTransferAccuracy(mTransferAccuracy);
 	}
 
 	public void numericalIntegrationMethod(int numIntMethod) 
@@ -230,8 +306,24 @@ public class CTRNNWrapper extends MaxObject
 		{
             case 0:  mMethod = NumericalIntegration.RUNGEKUTTA; break;
             case 1:  mMethod = NumericalIntegration.EULER; break;
+            case 2:  mMethod = NumericalIntegration.DORMANDPRINCE; break;
+            case 3:  mMethod = NumericalIntegration.EXPONENTIALEULER; break;
+            case 4:  mMethod = NumericalIntegration.MULTIRATEEULER; break;
             default: mMethod = NumericalIntegration.RUNGEKUTTA; break;
         }	
+		applyIntegrationMethod();
+	}
+
+	private void applyIntegrationMethod() 
+	{
+        switch (mMethod) 
+		{
+            case EULER:			mCTRNN.setIntegrator(CTRNN.Integrator.EULER); break;
+            case DORMANDPRINCE:	mCTRNN.setIntegrator(CTRNN.Integrator.DORMANDPRINCE); break;
+            case EXPONENTIALEULER:	mCTRNN.setIntegrator(CTRNN.Integrator.EXPONENTIAL_EULER); break;
+            case MULTIRATEEULER:	mCTRNN.setIntegrator(CTRNN.Integrator.MULTIRATE_EULER); break;
+            default:			mCTRNN.setIntegrator(CTRNN.Integrator.RUNGEKUTTA4); break;
+        }
 	}
 
 
@@ -244,13 +336,20 @@ public class CTRNNWrapper extends MaxObject
  		// init value with circuit size
 	 	// mSettings = new CTRNNSettings(mCircuitSize); 
 	 	mSettings = new CTRNNSettings(mCircuitSize, mBiasMax, mBiasMin, mGainMax, mGainMin, mTauMax, mTauMin, mWeightMax, mWeightMin);
+		mSettings.setTransferFunction(mTransferFunction);
+		mSettings.setTransferAccuracy(mTransferAccuracy);
 		mSettings.RandomizeCircuit();
 
 		// mSettings.RandomizExternalInputs(); // Do we really want to do this?? how about just keep
 
 		mCTRNN = new CTRNN(mSettings);
+		applyIntegrationMethod();
 		mCTRNN.setCenterCrossing();	 // Adjust biases to center crossing values based on connection weights 
 
+		if (mStats != null)
+			mStats.reset();
+		updateStatisticsInterval();
+
 		post(" Circuit Settings: " + mSettings.biases[0]);
 	}
 